@@ -0,0 +1,87 @@
+package com.github.skillstree.core.benchmark;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.github.skillstree.core.service.Authorizer;
+import com.github.skillstree.core.service.JwksKeyCache;
+import com.github.skillstree.core.service.JwksKeySource;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Authorization of the access to a user's path with a token signed by a key from a local JWKS file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx128m", "-Xms64m"})
+public class AuthorizationBenchmark {
+
+    private static final String USER_ID = "auth0|5ef1d2c3a4b5c6d7e8f90123";
+
+    private Path jwksFile;
+
+    private JwksKeySource keySource;
+
+    private Authorizer authorizer;
+
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+
+        jwksFile = Files.createTempFile("jwks", ".json");
+        Files.writeString(jwksFile, "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"benchmark\",\"use\":\"sig\"," +
+                "\"alg\":\"RS256\",\"n\":\"" + base64Url(publicKey.getModulus()) + "\"," +
+                "\"e\":\"" + base64Url(publicKey.getPublicExponent()) + "\"}]}");
+        keySource = JwksKeySource.fromUrl(jwksFile.toUri().toURL());
+
+        authorizer = new Authorizer(new JwksKeyCache(keySource));
+        token = JWT.create()
+                .withIssuer("https://skills-tree.example.com/")
+                .withKeyId("benchmark")
+                .withSubject(USER_ID)
+                .sign(Algorithm.RSA256(publicKey, (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(jwksFile);
+    }
+
+    @Benchmark
+    public boolean hasAccess() {
+        return authorizer.hasAccess("users/" + USER_ID + "/skills", token);
+    }
+
+    @Benchmark
+    public boolean hasAccessWithColdKeyCache() {
+        return new Authorizer(new JwksKeyCache(keySource)).hasAccess("users/" + USER_ID + "/skills", token);
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.skillstree.core.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.github.skillstree.core.model.CompactSkillsTree;
+import com.github.skillstree.core.model.SkillsTree;
+import com.github.skillstree.core.transformer.JsonFragmentCache;
+import com.github.skillstree.core.transformer.SkillsToJsonTreeTransformer;
+import com.github.skillstree.core.transformer.SkillsTreeHasher;
+import com.github.skillstree.core.transformer.YamlToSkillsTransformer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering of {@link SkillsTree} into JSON: to a string, to a stream, from the compact form and with the cached
+ * subtrees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx128m", "-Xms64m"})
+public class JsonRenderingBenchmark {
+
+    @Param({"4", "8"})
+    private int breadth;
+
+    @Param({"2", "3"})
+    private int depth;
+
+    private final SkillsToJsonTreeTransformer transformer = new SkillsToJsonTreeTransformer();
+
+    private final SkillsTreeHasher hasher = new SkillsTreeHasher();
+
+    private final JsonFragmentCache cache = new JsonFragmentCache();
+
+    private final OutputStream out = OutputStream.nullOutputStream();
+
+    private SkillsTree skillsTree;
+
+    private CompactSkillsTree compactSkillsTree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path reposDir = Files.createTempDirectory("skills-benchmark");
+        try {
+            Path baseDir = SkillsDirectoryGenerator.generate(reposDir, "root", breadth, depth);
+            skillsTree = new YamlToSkillsTransformer(new HashMap<>()).transform(baseDir.toFile());
+            compactSkillsTree = CompactSkillsTree.of(skillsTree);
+        } finally {
+            SkillsDirectoryGenerator.delete(reposDir);
+        }
+    }
+
+    @Benchmark
+    public String renderToString() throws IOException {
+        return transformer.transform(skillsTree);
+    }
+
+    @Benchmark
+    public void renderToStream() throws IOException {
+        transformer.transform(skillsTree, out);
+    }
+
+    @Benchmark
+    public void renderCompactToStream() throws IOException {
+        transformer.transform(compactSkillsTree, out);
+    }
+
+    @Benchmark
+    public CompactSkillsTree freeze() {
+        return CompactSkillsTree.of(skillsTree);
+    }
+
+    @Benchmark
+    public Map<UUID, String> hash() {
+        return hasher.hash(skillsTree);
+    }
+
+    @Benchmark
+    public String[] hashCompact() {
+        return hasher.hash(compactSkillsTree);
+    }
+
+    @Benchmark
+    public void renderUnchangedWithCache() throws IOException {
+        transformer.transform(compactSkillsTree, hasher.hash(compactSkillsTree), cache, out);
+    }
+}
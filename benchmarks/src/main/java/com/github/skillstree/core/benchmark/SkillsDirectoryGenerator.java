@@ -0,0 +1,64 @@
+package com.github.skillstree.core.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generator of the skills directories laid out as the skills repository: every directory has a root skill
+ * file named after it, {@code breadth} skills files and {@code breadth} subdirectories down to {@code depth}.
+ */
+public final class SkillsDirectoryGenerator {
+
+    private SkillsDirectoryGenerator() {
+    }
+
+    /**
+     * Generates the skills directory.
+     * @param reposDir directory to generate the root skill directory in
+     * @param rootName name of the root skill directory
+     * @param breadth  number of the skills files and the subdirectories in every directory
+     * @param depth    number of the levels of the subdirectories
+     * @return root skill directory
+     * @throws IOException if a problem with files occurred
+     */
+    public static Path generate(Path reposDir, String rootName, int breadth, int depth) throws IOException {
+        Path baseDir = reposDir.resolve(rootName);
+        generateDirectory(baseDir, breadth, depth);
+        return baseDir;
+    }
+
+    private static void generateDirectory(Path dir, int breadth, int depth) throws IOException {
+        Files.createDirectories(dir);
+        String name = dir.getFileName().toString();
+        writeSkill(dir.resolve(name + ".yaml"), name);
+
+        for (int i = 0; i < breadth; i++) {
+            writeSkill(dir.resolve("skill-" + i + ".yaml"), name + " skill " + i);
+            if (depth > 0) {
+                generateDirectory(dir.resolve("sub-" + i), breadth, depth - 1);
+            }
+        }
+    }
+
+    private static void writeSkill(Path file, String name) throws IOException {
+        Files.writeString(file, "name: " + name + "\n" +
+                "full-name: The " + name + "\n" +
+                "description: Description of the \"" + name + "\" skill\n");
+    }
+
+    /**
+     * Deletes the directory with all its content.
+     * @param dir directory to delete
+     * @throws IOException if a problem with files occurred
+     */
+    public static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
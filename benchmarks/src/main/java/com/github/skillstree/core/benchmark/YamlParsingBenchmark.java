@@ -0,0 +1,63 @@
+package com.github.skillstree.core.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.github.skillstree.core.model.SkillsTree;
+import com.github.skillstree.core.transformer.YamlToSkillsTransformer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parsing of the generated skills directory into {@link SkillsTree}: from scratch and incrementally
+ * after a single skill file is changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx128m", "-Xms64m"})
+public class YamlParsingBenchmark {
+
+    @Param({"4", "8"})
+    private int breadth;
+
+    @Param({"2", "3"})
+    private int depth;
+
+    private Path reposDir;
+
+    private File baseDir;
+
+    private SkillsTree skillsTree;
+
+    private List<String> changedFiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        reposDir = Files.createTempDirectory("skills-benchmark");
+        baseDir = SkillsDirectoryGenerator.generate(reposDir, "root", breadth, depth).toFile();
+        skillsTree = new YamlToSkillsTransformer(new HashMap<>()).transform(baseDir);
+        changedFiles = List.of("root/sub-0/skill-0.yaml");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SkillsDirectoryGenerator.delete(reposDir);
+    }
+
+    @Benchmark
+    public SkillsTree parse() throws IOException {
+        return new YamlToSkillsTransformer(new HashMap<>()).transform(baseDir);
+    }
+
+    @Benchmark
+    public SkillsTree applySingleChange() throws IOException {
+        return new YamlToSkillsTransformer(new HashMap<>()).transform(skillsTree, baseDir, changedFiles);
+    }
+}
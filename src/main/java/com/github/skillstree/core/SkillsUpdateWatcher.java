@@ -0,0 +1,245 @@
+package com.github.skillstree.core;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.github.skillstree.core.metrics.UpdateRunSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-running watch mode of {@link SkillsUpdater}. The branch of the skills repository is checked
+ * periodically without fetching it (like {@code git ls-remote} does), the update runs only when the branch
+ * moves away from the commit of the last update, which is read from the database at the start.
+ * <p>
+ * A burst of pushes results in a single update: the update waits until the branch stays at the same commit
+ * for the debounce period. The failed checks and updates are retried with the exponential backoff, which is
+ * randomized by the jitter, so the instances don't retry at the same moments.
+ * <p>
+ * The latest version is asked from the updater's {@link com.github.skillstree.core.service.SkillsSource}, so
+ * a {@link com.github.skillstree.core.service.DirectorySkillsSource} with a short poll interval and debounce
+ * makes the watcher follow the local edits of the skills files instead of the branch.
+ * <p>
+ * The updater should be prepared by {@link SkillsUpdater#pullPreviouslyPersistedSkills()} or
+ * {@link SkillsUpdater#loadSnapshot()} before the watcher is started, it shouldn't be used by anyone else
+ * while it is watched.
+ */
+public class SkillsUpdateWatcher implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkillsUpdateWatcher.class);
+
+    private final SkillsUpdater updater;
+
+    private final ScheduledExecutorService scheduler;
+
+    private Duration pollInterval = Duration.ofMinutes(1);
+
+    private Duration debounce = Duration.ofSeconds(10);
+
+    private Duration maxBackoff = Duration.ofMinutes(30);
+
+    private double jitter = 0.2;
+
+    private String lastCommitId;
+
+    private boolean lastCommitIdKnown;
+
+    private String pendingCommitId;
+
+    private long pendingSinceNanos;
+
+    private int consecutiveFailures;
+
+    private volatile long checkCount;
+
+    private volatile long updateCount;
+
+    private volatile long failureCount;
+
+    private boolean started;
+
+    public SkillsUpdateWatcher(SkillsUpdater updater) {
+        this.updater = updater;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                runnable -> new Thread(runnable, "skills-update-watcher"));
+        // the next check is dropped by close(), only the running one is waited for
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    /**
+     * Sets the interval between the checks of the branch, it is 1 minute by default.
+     * @param pollInterval interval between the checks
+     * @return this watcher
+     */
+    public synchronized SkillsUpdateWatcher setPollInterval(Duration pollInterval) {
+        this.pollInterval = requirePositive(pollInterval, "Poll interval");
+        return this;
+    }
+
+    /**
+     * Sets the time the branch should stay at the same commit before the update, it is 10 seconds by default.
+     * @param debounce debounce period, zero to update right after the branch moves
+     * @return this watcher
+     */
+    public synchronized SkillsUpdateWatcher setDebounce(Duration debounce) {
+        if (debounce.isNegative()) {
+            throw new IllegalArgumentException("Debounce should not be negative");
+        }
+        this.debounce = debounce;
+        return this;
+    }
+
+    /**
+     * Sets the maximal delay of the retry after the failures, it is 30 minutes by default.
+     * @param maxBackoff maximal delay of the retry
+     * @return this watcher
+     */
+    public synchronized SkillsUpdateWatcher setMaxBackoff(Duration maxBackoff) {
+        this.maxBackoff = requirePositive(maxBackoff, "Max backoff");
+        return this;
+    }
+
+    /**
+     * Sets the relative randomization of the retry delays, it is 0.2 by default.
+     * @param jitter jitter from 0 to 1, e.g. 0.2 makes the delays vary by 20% in both directions
+     * @return this watcher
+     */
+    public synchronized SkillsUpdateWatcher setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter should be from 0 to 1");
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    private static Duration requirePositive(Duration duration, String name) {
+        if (Objects.requireNonNull(duration).isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " should be positive");
+        }
+        return duration;
+    }
+
+    /**
+     * Starts watching the branch, the first check is made immediately.
+     * @return this watcher
+     */
+    public synchronized SkillsUpdateWatcher start() {
+        if (started) {
+            throw new IllegalStateException("Watcher is already started");
+        }
+        started = true;
+        scheduler.execute(this::check);
+        logger.info("Watching the skills repository every {}, debounce {}", pollInterval, debounce);
+        return this;
+    }
+
+    private synchronized void check() {
+        long delayNanos;
+        try {
+            delayNanos = checkAndUpdate();
+            consecutiveFailures = 0;
+        } catch (Exception e) {
+            failureCount++;
+            consecutiveFailures++;
+            delayNanos = backoffNanos();
+            logger.error("Skills update failed {} times in a row, the next attempt is in {} ms",
+                    consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(delayNanos), e);
+        }
+        try {
+            scheduler.schedule(this::check, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // the watcher is closed
+        }
+    }
+
+    /**
+     * Checks the branch and runs the update if it moved and the debounce period passed.
+     * @return delay of the next check in nanoseconds
+     */
+    private long checkAndUpdate() throws Exception {
+        checkCount++;
+        if (!lastCommitIdKnown) {
+            lastCommitId = updater.getPersistedCommitId();
+            lastCommitIdKnown = true;
+        }
+
+        String remoteCommitId = updater.getLatestSourceVersion();
+        if (remoteCommitId == null || remoteCommitId.equals(lastCommitId)) {
+            pendingCommitId = null;
+            return pollInterval.toNanos();
+        }
+
+        long now = System.nanoTime();
+        if (!remoteCommitId.equals(pendingCommitId)) {
+            // the branch has moved again, the debounce period starts over
+            pendingCommitId = remoteCommitId;
+            pendingSinceNanos = now;
+        }
+        long waitedNanos = now - pendingSinceNanos;
+        if (waitedNanos < debounce.toNanos()) {
+            logger.debug("Branch moved to {}, waiting for it to settle", remoteCommitId);
+            return Math.min(debounce.toNanos() - waitedNanos, pollInterval.toNanos());
+        }
+
+        logger.info("Branch moved from {} to {}, updating the skills", lastCommitId, remoteCommitId);
+        updater.retrieveAndUpdateSkills();
+        UpdateRunSummary summary = updater.getLastRunSummary();
+        lastCommitId = summary != null && summary.getCommitId() != null ? summary.getCommitId() : remoteCommitId;
+        pendingCommitId = null;
+        updateCount++;
+        return pollInterval.toNanos();
+    }
+
+    private long backoffNanos() {
+        int exponent = Math.min(consecutiveFailures - 1, 30);
+        double delay = Math.min((double) pollInterval.toNanos() * (1L << exponent), maxBackoff.toNanos());
+        return (long) (delay * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+    }
+
+    /**
+     * Returns the number of the checks of the branch.
+     * @return check count
+     */
+    public long getCheckCount() {
+        return checkCount;
+    }
+
+    /**
+     * Returns the number of the successful updates.
+     * @return update count
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Returns the number of the failed checks and updates.
+     * @return failure count
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Stops watching, the running update is completed first, the scheduled check is cancelled.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Skills update is still running, it is interrupted");
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -2,14 +2,38 @@ package com.github.skillstree.core;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
+import com.github.skillstree.core.metrics.CountingOutputStream;
+import com.github.skillstree.core.metrics.MetricsSink;
+import com.github.skillstree.core.metrics.UpdateMetrics;
+import com.github.skillstree.core.metrics.UpdateRunSummary;
+import com.github.skillstree.core.model.CompactSkillsTree;
 import com.github.skillstree.core.model.SkillsIdMapping;
-import com.github.skillstree.core.model.SkillsTree;
+import com.github.skillstree.core.model.SkillsProgress;
+import com.github.skillstree.core.model.SkillsTreeIndex;
+import com.github.skillstree.core.model.UserSkill;
 import com.github.skillstree.core.service.GitExtractor;
+import com.github.skillstree.core.service.GitSkillsSource;
 import com.github.skillstree.core.service.PersistenceService;
+import com.github.skillstree.core.service.SkillsSnapshot;
+import com.github.skillstree.core.service.SkillsSource;
 import com.github.skillstree.core.service.WebSiteConstructor;
+import com.github.skillstree.core.transformer.JsonFragmentCache;
+import com.github.skillstree.core.transformer.SkillsFile;
 import com.github.skillstree.core.transformer.SkillsToJsonTreeTransformer;
+import com.github.skillstree.core.transformer.SkillsTreeHasher;
+import com.github.skillstree.core.transformer.SkillsTreePatchTransformer;
 import com.github.skillstree.core.transformer.YamlToSkillsTransformer;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.slf4j.Logger;
@@ -17,23 +41,66 @@ import org.slf4j.LoggerFactory;
 
 public class SkillsUpdater {
 
+    public static final String PARSE_STAGE = "parse";
+
+    public static final String RENDER_STAGE = "render";
+
+    public static final String PUBLISH_STAGE = "publish";
+
+    public static final String PERSIST_STAGE = "persist";
+
     private static final Logger logger = LoggerFactory.getLogger(SkillsUpdater.class);
 
+    private static final int DEFAULT_PIPELINE_QUEUE_CAPACITY = 2;
+
     private static final List<String> REPO_FILES_TO_IGNORE =
             Collections.unmodifiableList(List.of(".git", ".gitignore"));
 
     private final PersistenceService persistence;
 
-    private final GitExtractor gitExtractor;
+    private final SkillsSource skillsSource;
 
     private final SkillsToJsonTreeTransformer skillsToJsonTransformer;
 
+    private final SkillsTreePatchTransformer skillsTreePatchTransformer;
+
     private final WebSiteConstructor webSiteConstructor;
 
-    private final Map<String, SkillsTree> skillsTrees = new HashMap<>();
+    /**
+     * Indexed skills trees by the names of their root directories, only the compact forms are kept between
+     * the updates. The index is rebuilt whenever a tree is loaded.
+     */
+    private final Map<String, SkillsTreeIndex> skillsTrees = new ConcurrentHashMap<>();
+
+    private final Map<String, Exception> parsingFailures = new ConcurrentHashMap<>();
+
+    private final SkillsTreeHasher skillsTreeHasher = new SkillsTreeHasher();
+
+    private final Map<String, SkillsTreeIndex> publishedTrees = new ConcurrentHashMap<>();
+
+    private final Map<String, String[]> publishedSubtreeHashes = new ConcurrentHashMap<>();
+
+    private final Map<String, JsonFragmentCache> jsonFragmentCaches = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> stageParallelism = new ConcurrentHashMap<>(Map.of(
+            PARSE_STAGE, 1, RENDER_STAGE, 1, PUBLISH_STAGE, 1, PERSIST_STAGE, 1));
+
+    private int pipelineQueueCapacity = DEFAULT_PIPELINE_QUEUE_CAPACITY;
+
+    private Executor pipelineExecutor;
+
+    private Path snapshotFile;
+
+    private UpdateMetrics metrics = new UpdateMetrics(MetricsSink.noop());
+
+    private volatile UpdateRunSummary lastRunSummary;
+
+    private Executor parsingExecutor;
 
     private Map<String, UUID> persistedSkills;
 
+    private String skillsTreesCommitId;
+
     public SkillsUpdater(WebSiteConstructor webSiteConstructor) {
         this(webSiteConstructor, new PersistenceService(), new SkillsToJsonTreeTransformer());
     }
@@ -46,14 +113,209 @@ public class SkillsUpdater {
      */
     public SkillsUpdater(WebSiteConstructor webSiteConstructor, PersistenceService persistenceService,
                          SkillsToJsonTreeTransformer skillsToJsonTransformer) {
+        this(webSiteConstructor, persistenceService, skillsToJsonTransformer, new GitExtractor(new File(
+                new File(System.getProperty("java.io.tmpdir")).getAbsolutePath() + File.separator + "skills")));
+    }
+
+    /**
+     * Constructor.
+     * @param webSiteConstructor      web site constructor
+     * @param persistenceService      persistence service
+     * @param skillsToJsonTransformer skills to json transformer
+     * @param gitExtractor            extractor of the skills repository, e.g. of a local {@code file://} one
+     */
+    public SkillsUpdater(WebSiteConstructor webSiteConstructor, PersistenceService persistenceService,
+                         SkillsToJsonTreeTransformer skillsToJsonTransformer, GitExtractor gitExtractor) {
+        this(webSiteConstructor, persistenceService, skillsToJsonTransformer, new GitSkillsSource(gitExtractor));
+    }
+
+    /**
+     * Constructor.
+     * @param webSiteConstructor      web site constructor
+     * @param persistenceService      persistence service
+     * @param skillsToJsonTransformer skills to json transformer
+     * @param skillsSource            source of the skills files, e.g. a watched local directory
+     */
+    public SkillsUpdater(WebSiteConstructor webSiteConstructor, PersistenceService persistenceService,
+                         SkillsToJsonTreeTransformer skillsToJsonTransformer, SkillsSource skillsSource) {
 
         this.webSiteConstructor = webSiteConstructor;
         this.persistence = persistenceService;
         this.skillsToJsonTransformer = skillsToJsonTransformer;
+        this.skillsTreePatchTransformer = new SkillsTreePatchTransformer(skillsToJsonTransformer);
+        this.skillsSource = skillsSource;
+    }
+
+    /**
+     * Sets the executor, which parses the root skills directories concurrently. The failure of one root
+     * skill doesn't abort the others then, such failures are available via {@link #getParsingFailures()}.
+     * @param parsingExecutor executor, e.g. {@link java.util.concurrent.ForkJoinPool}, or null to parse
+     *                        the directories one by one
+     * @return this updater
+     */
+    public SkillsUpdater setParsingExecutor(Executor parsingExecutor) {
+        this.parsingExecutor = parsingExecutor;
+        return this;
+    }
+
+    /**
+     * Sets whether the skills files are checked out to the temporary directory. Without the working copy
+     * the files are read straight from the objects of the fetched commit. It is supported by the git source only.
+     * @param workingCopy true to check out the files, it is the default
+     * @return this updater
+     */
+    public SkillsUpdater setWorkingCopy(boolean workingCopy) {
+        if (!(skillsSource instanceof GitSkillsSource)) {
+            throw new IllegalStateException("Working copy is supported by the git skills source only");
+        }
+        ((GitSkillsSource) skillsSource).setWorkingCopy(workingCopy);
+        return this;
+    }
+
+    /**
+     * Sets the number of the workers of the stage of {@link #retrieveAndUpdateSkills()}, there is one worker
+     * per stage by default. The website constructor should be thread-safe if there are several publishing
+     * workers.
+     * @param stage       one of {@link #PARSE_STAGE}, {@link #RENDER_STAGE}, {@link #PUBLISH_STAGE},
+     *                    {@link #PERSIST_STAGE}
+     * @param parallelism number of the workers
+     * @return this updater
+     */
+    public SkillsUpdater setStageParallelism(String stage, int parallelism) {
+        if (!stageParallelism.containsKey(stage)) {
+            throw new IllegalArgumentException("Unknown stage of the pipeline: " + stage);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism of the stage should be positive");
+        }
+        stageParallelism.put(stage, parallelism);
+        return this;
+    }
+
+    /**
+     * Sets the capacity of the queue in front of every stage of {@link #retrieveAndUpdateSkills()}. A stage
+     * waits when the queue of the next one is full, so it limits the number of the trees held in memory.
+     * @param pipelineQueueCapacity capacity of the queues
+     * @return this updater
+     */
+    public SkillsUpdater setPipelineQueueCapacity(int pipelineQueueCapacity) {
+        if (pipelineQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity of the pipeline's queues should be positive");
+        }
+        this.pipelineQueueCapacity = pipelineQueueCapacity;
+        return this;
+    }
+
+    /**
+     * Sets the executor of the workers of {@link #retrieveAndUpdateSkills()}. It should be able to run all
+     * the workers at the same time, since they wait for each other.
+     * @param pipelineExecutor executor, or null to run the workers on the virtual threads if the JDK supports
+     *                         them and on the platform threads otherwise
+     * @return this updater
+     */
+    public SkillsUpdater setPipelineExecutor(Executor pipelineExecutor) {
+        this.pipelineExecutor = pipelineExecutor;
+        return this;
+    }
+
+    /**
+     * Sets the file of the snapshot of the skills trees and mappings, see {@link SkillsSnapshot}. The snapshot
+     * is written after every successful update and is read by {@link #loadSnapshot()}.
+     * @param snapshotFile snapshot file, or null to keep no snapshot
+     * @return this updater
+     */
+    public SkillsUpdater setSnapshotFile(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        return this;
+    }
+
+    /**
+     * Loads the skills trees and mappings from the snapshot written by the last successful update, so they are
+     * available without the skills repository and the database. The next retrieval of the trees applies only
+     * the files changed since the snapshot's commit, the trees without such files are not parsed at all.
+     * It replaces {@link #pullPreviouslyPersistedSkills()} at the start, which is needed only if there is
+     * no valid snapshot. The trees are published again by the next update, since the website may not keep them.
+     * @return true if the snapshot is loaded, false if there is no snapshot or it cannot be read
+     */
+    public boolean loadSnapshot() {
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        SkillsSnapshot snapshot;
+        try {
+            snapshot = SkillsSnapshot.read(snapshotFile);
+        } catch (IOException e) {
+            logger.warn("Cannot read the skills snapshot " + snapshotFile, e);
+            return false;
+        }
+
+        skillsTrees.clear();
+        snapshot.getTrees().forEach((treeName, tree) -> skillsTrees.put(treeName, SkillsTreeIndex.of(tree)));
+        persistedSkills = new ConcurrentHashMap<>(snapshot.getMappings());
+        skillsTreesCommitId = snapshot.getCommitId();
+        logger.info("Skills snapshot of the commit {} is loaded in {} ms: {} trees, {} mappings",
+                skillsTreesCommitId, (System.nanoTime() - start) / 1_000_000, skillsTrees.size(),
+                persistedSkills.size());
+        return true;
+    }
+
+    /**
+     * Sets the sink of the update's metrics (see {@link UpdateMetrics}) and of the persistence service's
+     * queries. A run starts with {@link #retrieveSkillsTrees()} and finishes with {@link #updateSkills()},
+     * its summary is logged and is available via {@link #getLastRunSummary()}.
+     * @param metricsSink metrics sink
+     * @return this updater
+     */
+    public SkillsUpdater setMetricsSink(MetricsSink metricsSink) {
+        this.metrics = new UpdateMetrics(metricsSink);
+        persistence.setMetricsSink(metricsSink);
+        return this;
+    }
+
+    /**
+     * Returns the summary of the last finished update run.
+     * @return run summary or null if no run is finished yet
+     */
+    public UpdateRunSummary getLastRunSummary() {
+        return lastRunSummary;
+    }
+
+    /**
+     * Returns the failures of the last concurrent parsing.
+     * @return exceptions by the names of the root skills directories, which failed to be parsed
+     */
+    public Map<String, Exception> getParsingFailures() {
+        return Collections.unmodifiableMap(parsingFailures);
+    }
 
-        File repoDir = new File(new File(System.getProperty("java.io.tmpdir"))
-                .getAbsolutePath() + File.separator + "skills");
-        this.gitExtractor = new GitExtractor(repoDir);
+    /**
+     * Returns the indexed skills trees retrieved by the last {@link #retrieveSkillsTrees()}.
+     * @return indexes of the skills trees by the names of their root directories
+     */
+    public Map<String, SkillsTreeIndex> getSkillsTrees() {
+        return Collections.unmodifiableMap(skillsTrees);
+    }
+
+    /**
+     * Computes the progress of the user in every skills tree.
+     * @param userId user ID
+     * @return progress by the names of the trees' root directories
+     */
+    public Map<String, SkillsProgress> calculateProgress(String userId) {
+        return calculateProgress(persistence.getUserSkills(userId));
+    }
+
+    /**
+     * Computes the progress in every skills tree for the obtained skills.
+     * @param userSkills skills obtained by the user
+     * @return progress by the names of the trees' root directories
+     */
+    public Map<String, SkillsProgress> calculateProgress(Collection<UserSkill> userSkills) {
+        Map<String, SkillsProgress> progress = new HashMap<>();
+        skillsTrees.forEach((treeName, index) -> progress.put(treeName, SkillsProgress.of(index, userSkills)));
+        return progress;
     }
 
     /**
@@ -61,46 +323,446 @@ public class SkillsUpdater {
      */
     public void pullPreviouslyPersistedSkills() {
         persistence.initTables();
-        persistedSkills = persistence.getAllMappings();
+        persistedSkills = new ConcurrentHashMap<>(persistence.getAllMappings());
         logger.debug("Previously persisted skills: {}", persistedSkills);
     }
 
     /**
-     * Retrieves skills trees.
+     * Retrieves the version of the skills files without retrieving them, e.g. the commit of the remote branch.
+     */
+    String getLatestSourceVersion() throws GitAPIException, IOException {
+        return skillsSource.getLatestVersion();
+    }
+
+    /**
+     * Retrieves the id of the commit the skills were updated to last time, it is kept in the database.
+     * The source without the persistent versions has no such commit, the skills are updated at the start then.
+     */
+    String getPersistedCommitId() {
+        return skillsSource.isVersionPersistent() ? persistence.getLastCommit() : null;
+    }
+
+    /**
+     * Retrieves skills trees. The trees retrieved by the previous call are patched with the files changed
+     * since then, the directories are parsed from scratch only for the first call or if the changes
+     * cannot be obtained.
      * @throws GitAPIException if a problem with the skills repository occurred
      * @throws IOException     if a problem in work with files occurred
      */
     public void retrieveSkillsTrees() throws GitAPIException, IOException {
-        File skillsDir;
-        skillsDir = gitExtractor.getDirWithSkills();
+        metrics.startRun();
+        RepositoryState state = fetchRepository();
 
-        File[] mainSkillDirs = skillsDir.listFiles(f ->
-                f.isDirectory() && !REPO_FILES_TO_IGNORE.contains(f.getName()));
-        Objects.requireNonNull(mainSkillDirs, "No root skills are found in the skills directory");
+        if (parsingExecutor == null) {
+            for (SkillsFile baseDir : state.mainSkillDirs) {
+                retrieveSkillsTree(state.reposRoot, baseDir, state.changedFiles);
+            }
+        } else {
+            retrieveSkillsTreesConcurrently(state.reposRoot, state.mainSkillDirs, state.changedFiles);
+        }
+        skillsTreesCommitId = state.commitId;
+    }
 
-        for (File baseDir : mainSkillDirs) {
-            logger.info("Parsing base directory for a root skill: " + baseDir.getName());
+    /**
+     * Retrieves the skills files from the source, lists the root skills directories and the files changed since
+     * the trees were retrieved last time. The trees of the removed directories are dropped.
+     */
+    private RepositoryState fetchRepository() throws GitAPIException, IOException {
+        SkillsFile reposRoot;
+        String commitId;
+        // the retrieval throws two kinds of exceptions, so the stage isn't timed by metrics.time()
+        UpdateMetrics.Stage fetchStage = metrics.stage("fetch", null);
+        try {
+            reposRoot = skillsSource.retrieve();
+            commitId = skillsSource.getVersion();
+        } finally {
+            fetchStage.close();
+        }
+
+        List<String> changedFiles = null;
+        if (skillsTreesCommitId != null && commitId != null) {
+            changedFiles = metrics.time("diff", null, () -> skillsSource.getChangedFilesAfter(skillsTreesCommitId));
+        }
+
+        List<SkillsFile> mainSkillDirs = new ArrayList<>();
+        for (SkillsFile f : reposRoot.listFiles()) {
+            if (f.isDirectory() && !REPO_FILES_TO_IGNORE.contains(f.getName())) {
+                mainSkillDirs.add(f);
+            }
+        }
 
-            YamlToSkillsTransformer tr = new YamlToSkillsTransformer(persistedSkills);
-            SkillsTree skillsTree = tr.transform(baseDir);
+        Set<String> mainSkillDirNames = new HashSet<>();
+        for (SkillsFile baseDir : mainSkillDirs) {
+            mainSkillDirNames.add(baseDir.getName());
+        }
+        skillsTrees.keySet().retainAll(mainSkillDirNames);
+
+        parsingFailures.clear();
+        return new RepositoryState(reposRoot, mainSkillDirs, changedFiles, commitId);
+    }
 
-            skillsTrees.put(skillsTree.getRootSkill().getCode(), skillsTree);
+    private void retrieveSkillsTreesConcurrently(SkillsFile reposRoot, List<SkillsFile> mainSkillDirs,
+                                                 List<String> changedFiles) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (SkillsFile baseDir : mainSkillDirs) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    retrieveSkillsTree(reposRoot, baseDir, changedFiles);
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Cannot parse the root skill: " + baseDir.getName(), e);
+                    parsingFailures.put(baseDir.getName(), e);
+                }
+            }, parsingExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+    }
+
+    private SkillsTreeIndex retrieveSkillsTree(SkillsFile reposRoot, SkillsFile baseDir, List<String> changedFiles)
+            throws IOException {
+        YamlToSkillsTransformer tr = new YamlToSkillsTransformer(persistedSkills);
+        String treeName = baseDir.getName();
+        SkillsTreeIndex previousTree = skillsTrees.get(treeName);
+        if (previousTree != null && changedFiles != null &&
+                changedFiles.stream().noneMatch(file -> file.startsWith(baseDir.getPath() + "/"))) {
+            logger.info("Root skill {} is not changed", treeName);
+            return previousTree;
+        }
+
+        try {
+            CompactSkillsTree skillsTree = metrics.time(PARSE_STAGE, treeName, () -> {
+                if (previousTree != null && changedFiles != null) {
+                    // only the directories on the paths of the changes are expanded to the objects
+                    logger.info("Applying changes to the root skill: " + treeName);
+                    return tr.transform(previousTree.getTree(), reposRoot, baseDir.getPath(), changedFiles);
+                }
+                logger.info("Parsing base directory for a root skill: " + treeName);
+                return CompactSkillsTree.of(tr.transform(baseDir));
+            });
+            metrics.count("files", treeName, tr.getParsedFileCount());
+
+            SkillsTreeIndex index = metrics.time("index", treeName, () -> SkillsTreeIndex.of(skillsTree));
+            metrics.count("skills", treeName, index.getTree().size());
+            skillsTrees.put(treeName, index);
+            return index;
+
+        } catch (IOException | RuntimeException e) {
+            // the tree might be patched partially, it will be parsed from scratch next time
+            skillsTrees.remove(treeName);
+            throw e;
         }
     }
 
     /**
-     * Updates skills in the persistence layer from the changes in skills tree repository.
+     * Updates skills in the persistence layer from the changes in skills tree repository. The skills trees,
+     * which are not changed since their last publication, are skipped.
      * @throws IOException if a problem with skills transformation to JSON occurred
      */
     public void updateSkills() throws IOException {
-        for (SkillsTree skillsTree : skillsTrees.values()) {
-            String skillsTreeJson = skillsToJsonTransformer.transform(skillsTree);
-            webSiteConstructor.updateSkillsTree(skillsTreeJson);
-
-            skillsTree.getSkills().forEach((id, skill) ->
-                    persistence.save(new SkillsIdMapping(skill.getId(), skill.getCode())));
-            persistence.save(gitExtractor.getLastCommitId());
-            logger.info("Skills to id mappings have been persisted");
+        if (!metrics.isRunStarted()) {
+            metrics.startRun();
+        }
+        String lastCommitId = skillsSource.getVersion();
+        retainPublishedTrees(skillsTrees.keySet());
+
+        for (Map.Entry<String, SkillsTreeIndex> entry : skillsTrees.entrySet()) {
+            String treeName = entry.getKey();
+            String[] subtreeHashes = hashIfChanged(treeName, entry.getValue());
+            if (subtreeHashes == null) {
+                continue;
+            }
+
+            metrics.time(PUBLISH_STAGE, treeName, () -> publish(treeName, entry.getValue(), subtreeHashes));
+            persist(new TreeUpdate(treeName, entry.getValue(), subtreeHashes));
+        }
+
+        finishUpdate(lastCommitId);
+    }
+
+    /**
+     * Retrieves the skills trees and publishes them like {@link #retrieveSkillsTrees()} followed by
+     * {@link #updateSkills()} do, but the trees pass through the pipeline of the stages connected by the bounded
+     * queues: parse, render, publish and persist. So the next tree is parsed while the previous one is rendered
+     * and the one before is published and persisted. The render stage computes the JSON Patches, the full JSON
+     * is streamed to the website constructor by the publish stage, so only the patches are kept in memory and
+     * the capacity of the queues limits the number of the trees held.
+     * <p>
+     * The failure of a tree doesn't abort the others, the failures are thrown after all the trees are processed.
+     * The parsing failures are available via {@link #getParsingFailures()} as well. The last commit is saved only
+     * if no tree failed, otherwise the next run repeats the update from the previous commit.
+     * @throws GitAPIException if a problem with the skills repository occurred
+     * @throws IOException     if a tree failed to be parsed or published
+     */
+    public void retrieveAndUpdateSkills() throws GitAPIException, IOException {
+        metrics.startRun();
+        RepositoryState state = fetchRepository();
+        retainPublishedTrees(state.mainSkillDirs.stream().map(SkillsFile::getName).collect(Collectors.toSet()));
+
+        Map<String, Exception> failures = new ConcurrentHashMap<>();
+        StagedPipeline<SkillsFile, TreeUpdate> pipeline = StagedPipeline.<SkillsFile>of()
+                .then(PARSE_STAGE, stageParallelism.get(PARSE_STAGE), baseDir -> {
+                    SkillsTreeIndex index = retrieveSkillsTree(state.reposRoot, baseDir, state.changedFiles);
+                    String[] subtreeHashes = hashIfChanged(baseDir.getName(), index);
+                    return subtreeHashes == null ? null : new TreeUpdate(baseDir.getName(), index, subtreeHashes);
+                })
+                .then(RENDER_STAGE, stageParallelism.get(RENDER_STAGE), this::render)
+                .then(PUBLISH_STAGE, stageParallelism.get(PUBLISH_STAGE), update -> {
+                    publish(update);
+                    return update;
+                })
+                .then(PERSIST_STAGE, stageParallelism.get(PERSIST_STAGE), update -> {
+                    persist(update);
+                    return update;
+                });
+
+        Executor executor = pipelineExecutor;
+        ExecutorService ownExecutor = executor == null ? StagedPipeline.newWorkerExecutor() : null;
+        try {
+            pipeline.run(state.mainSkillDirs, pipelineQueueCapacity, executor == null ? ownExecutor : executor,
+                    (stage, item, e) -> {
+                        if (item instanceof SkillsFile) {
+                            String treeName = ((SkillsFile) item).getName();
+                            logger.error("Cannot parse the root skill: " + treeName, e);
+                            parsingFailures.put(treeName, e);
+                        } else {
+                            String treeName = ((TreeUpdate) item).treeName;
+                            logger.error("Cannot " + stage + " the skills tree: " + treeName, e);
+                            failures.put(treeName, e);
+                        }
+                    });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Update of the skills trees is interrupted");
+        } finally {
+            if (ownExecutor != null) {
+                ownExecutor.shutdown();
+            }
+        }
+
+        failures.putAll(parsingFailures);
+        if (!failures.isEmpty()) {
+            // the trees stay at the previous commit, so the next run applies the same changes again
+            IOException exception = new IOException("Cannot update the skills trees " + failures.keySet());
+            failures.values().forEach(exception::addSuppressed);
+            throw exception;
+        }
+        skillsTreesCommitId = state.commitId;
+        finishUpdate(state.commitId);
+    }
+
+    /**
+     * Drops the publication state of the trees, which don't exist anymore.
+     */
+    private void retainPublishedTrees(Set<String> treeNames) {
+        publishedTrees.keySet().retainAll(treeNames);
+        publishedSubtreeHashes.keySet().retainAll(treeNames);
+        jsonFragmentCaches.keySet().retainAll(treeNames);
+    }
+
+    /**
+     * Hashes the subtrees of the tree.
+     * @return hashes of the subtrees or null if the tree is not changed since its last publication
+     */
+    private String[] hashIfChanged(String treeName, SkillsTreeIndex skillsTree) {
+        String[] subtreeHashes = metrics.time("hash", treeName, () -> skillsTreeHasher.hash(skillsTree.getTree()));
+        String[] publishedHashes = publishedSubtreeHashes.get(treeName);
+        if (publishedHashes != null &&
+                subtreeHashes[CompactSkillsTree.ROOT].equals(publishedHashes[CompactSkillsTree.ROOT])) {
+            logger.info("Skills tree {} is not changed since its last publication", treeName);
+            return null;
+        }
+        return subtreeHashes;
+    }
+
+    /**
+     * Persists the changed mappings of the published tree. The last commit is saved by
+     * {@link #finishUpdate(String)} once all the trees are persisted.
+     */
+    private void persist(TreeUpdate update) {
+        CompactSkillsTree skillsTree = update.skillsTree.getTree();
+        List<SkillsIdMapping> changedMappings = new ArrayList<>();
+        for (int skill = 0; skill < skillsTree.size(); skill++) {
+            UUID id = skillsTree.getId(skill);
+            if (!id.equals(persistedSkills.get(skillsTree.getCode(skill)))) {
+                changedMappings.add(new SkillsIdMapping(id, skillsTree.getCode(skill)));
+            }
+        }
+        if (!changedMappings.isEmpty()) {
+            try {
+                metrics.time(PERSIST_STAGE, update.treeName, () -> persistence.saveAll(changedMappings));
+            } catch (RuntimeException e) {
+                // the tree would be skipped as not changed next time, so it is published and persisted again
+                forgetPublication(update.treeName);
+                throw e;
+            }
+            metrics.count("dbStatements", update.treeName, changedMappings.size());
+        }
+        changedMappings.forEach(mapping -> persistedSkills.put(mapping.getCode(), mapping.getId()));
+        logger.info("Skills to id mappings have been persisted, {} of them changed", changedMappings.size());
+    }
+
+    /**
+     * Drops the published version of the tree, so the tree is published in full next time.
+     */
+    private void forgetPublication(String treeName) {
+        publishedTrees.remove(treeName);
+        publishedSubtreeHashes.remove(treeName);
+    }
+
+    /**
+     * Saves the last commit after every tree is published and persisted, so a failed update is repeated
+     * from the previous commit. The versions of the source, which aren't persistent, are not saved, so they
+     * don't replace the commit of the skills repository shared with the other instances.
+     */
+    private void finishUpdate(String lastCommitId) {
+        if (skillsSource.isVersionPersistent()) {
+            metrics.time(PERSIST_STAGE, null, () -> persistence.save(lastCommitId));
+            metrics.count("dbStatements", null, 1);
+        }
+        writeSnapshot(lastCommitId);
+        lastRunSummary = metrics.finishRun(lastCommitId);
+    }
+
+    private void writeSnapshot(String commitId) {
+        if (snapshotFile == null || commitId == null || persistedSkills == null) {
+            return;
+        }
+        Map<String, CompactSkillsTree> trees = new TreeMap<>();
+        skillsTrees.forEach((treeName, index) -> trees.put(treeName, index.getTree()));
+        try {
+            SkillsSnapshot snapshot = new SkillsSnapshot(commitId, trees, persistedSkills);
+            metrics.time("snapshot", null, () -> snapshot.write(snapshotFile));
+        } catch (IOException e) {
+            // the snapshot only speeds up the start, the update itself succeeded
+            logger.warn("Cannot write the skills snapshot " + snapshotFile, e);
+        }
+    }
+
+    /**
+     * Publishes the JSON Patch of the previously published version of the tree if the website accepts it and
+     * it is smaller than the full tree, otherwise publishes the full tree. The first version of the tree is
+     * streamed to the website without buffering.
+     */
+    private void publish(String treeName, SkillsTreeIndex skillsTree, String[] subtreeHashes) throws IOException {
+        TreeUpdate update = new TreeUpdate(treeName, skillsTree, subtreeHashes);
+        renderPatch(update);
+        publishJson(update);
+    }
+
+    private TreeUpdate render(TreeUpdate update) throws IOException {
+        metrics.time(RENDER_STAGE, update.treeName, () -> renderPatch(update));
+        return update;
+    }
+
+    private void publish(TreeUpdate update) throws IOException {
+        metrics.time(PUBLISH_STAGE, update.treeName, () -> publishJson(update));
+    }
+
+    /**
+     * Renders the JSON Patch of the previously published version of the tree if the website constructor accepts
+     * the patches. The patch is kept only if it is smaller than the full JSON, which is counted but not kept.
+     */
+    private void renderPatch(TreeUpdate update) throws IOException {
+        String treeName = update.treeName;
+        SkillsTreeIndex publishedTree = publishedTrees.get(treeName);
+        if (publishedTree == null || !webSiteConstructor.acceptsPatches()) {
+            return;
+        }
+
+        String patch = skillsTreePatchTransformer.transform(publishedTree, publishedSubtreeHashes.get(treeName),
+                update.skillsTree, update.subtreeHashes);
+        int patchSize = patch.getBytes(StandardCharsets.UTF_8).length;
+        CountingOutputStream countingOut = new CountingOutputStream(OutputStream.nullOutputStream());
+        writeJson(update, countingOut);
+        if (patchSize < countingOut.getCount()) {
+            update.patch = patch;
+            update.patchSize = patchSize;
+            update.fullJsonSize = countingOut.getCount();
+        }
+    }
+
+    /**
+     * Publishes the patch of the tree if there is one and the website constructor applies it, otherwise streams
+     * the full JSON to the website constructor. The published tree becomes the base of the next patch right
+     * away, as the website holds it whatever happens to the later stages. If the publication fails, the website
+     * might hold a part of the tree, so the base is dropped and the next publication is the full tree.
+     */
+    private void publishJson(TreeUpdate update) throws IOException {
+        try {
+            sendJson(update);
+        } catch (IOException | RuntimeException e) {
+            forgetPublication(update.treeName);
+            throw e;
+        }
+        publishedTrees.put(update.treeName, update.skillsTree);
+        publishedSubtreeHashes.put(update.treeName, update.subtreeHashes);
+    }
+
+    private void sendJson(TreeUpdate update) throws IOException {
+        String treeName = update.treeName;
+        if (update.patch != null && webSiteConstructor.patchSkillsTree(treeName, update.patch)) {
+            logger.info("Skills tree {} is patched, {} bytes instead of {}", treeName, update.patchSize,
+                    update.fullJsonSize);
+            metrics.size("patchBytes", treeName, update.patchSize);
+            return;
+        }
+
+        long[] size = new long[1];
+        webSiteConstructor.updateSkillsTree(treeName, out -> {
+            CountingOutputStream countingOut = new CountingOutputStream(out);
+            writeJson(update, countingOut);
+            size[0] = countingOut.getCount();
+        });
+        metrics.size("jsonBytes", treeName, size[0]);
+    }
+
+    private void writeJson(TreeUpdate update, OutputStream out) throws IOException {
+        JsonFragmentCache cache = jsonFragmentCaches.computeIfAbsent(update.treeName, name -> new JsonFragmentCache());
+        skillsToJsonTransformer.transform(update.skillsTree.getTree(), update.subtreeHashes, cache, out);
+    }
+
+    /**
+     * State of the skills repository at the beginning of an update.
+     */
+    private static class RepositoryState {
+
+        private final SkillsFile reposRoot;
+
+        private final List<SkillsFile> mainSkillDirs;
+
+        private final List<String> changedFiles;
+
+        private final String commitId;
+
+        RepositoryState(SkillsFile reposRoot, List<SkillsFile> mainSkillDirs, List<String> changedFiles,
+                        String commitId) {
+            this.reposRoot = reposRoot;
+            this.mainSkillDirs = mainSkillDirs;
+            this.changedFiles = changedFiles;
+            this.commitId = commitId;
+        }
+    }
+
+    /**
+     * Changed skills tree on its way to the website and the database.
+     */
+    private static class TreeUpdate {
+
+        private final String treeName;
+
+        private final SkillsTreeIndex skillsTree;
+
+        private final String[] subtreeHashes;
+
+        private String patch;
+
+        private int patchSize;
+
+        private long fullJsonSize;
+
+        TreeUpdate(String treeName, SkillsTreeIndex skillsTree, String[] subtreeHashes) {
+            this.treeName = treeName;
+            this.skillsTree = skillsTree;
+            this.subtreeHashes = subtreeHashes;
         }
     }
 }
@@ -0,0 +1,211 @@
+package com.github.skillstree.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipeline of the stages connected by the bounded queues, every stage is processed by its own workers.
+ * So the stages of the different items overlap and the whole processing takes about the time of the slowest
+ * stage. A worker blocks when the queue of the next stage is full, so a slow stage throttles the previous ones.
+ * <p>
+ * The failure of an item in a stage is reported to the failure handler, the item is dropped then and the rest
+ * of the items are processed. A stage drops an item by returning null.
+ * @param <I> type of the pipeline's input items
+ * @param <O> type of the last stage's output items
+ */
+final class StagedPipeline<I, O> {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagedPipeline.class);
+
+    private static final Object END = new Object();
+
+    private final List<StageSpec> stages;
+
+    private StagedPipeline(List<StageSpec> stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * Starts the pipeline definition.
+     * @param <I> type of the input items
+     * @return pipeline without stages
+     */
+    static <I> StagedPipeline<I, I> of() {
+        return new StagedPipeline<>(new ArrayList<>());
+    }
+
+    /**
+     * Appends the stage to the pipeline.
+     * @param name        name of the stage
+     * @param parallelism number of the stage's workers
+     * @param function    processing of an item, returns null to drop the item
+     * @param <N>         type of the stage's output items
+     * @return pipeline with the stage appended
+     */
+    <N> StagedPipeline<I, N> then(String name, int parallelism, Stage<? super O, ? extends N> function) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism of the stage " + name + " should be positive");
+        }
+        List<StageSpec> newStages = new ArrayList<>(stages);
+        newStages.add(new StageSpec(name, parallelism, function));
+        return new StagedPipeline<>(newStages);
+    }
+
+    /**
+     * Processes the items and waits until all of them pass through the pipeline. The executor should be able
+     * to run all the workers of all the stages at the same time, since the workers wait for each other.
+     * @param items          input items, they are fed by the calling thread
+     * @param queueCapacity  capacity of the queue in front of every stage
+     * @param executor       executor of the workers
+     * @param failureHandler handler of the items' failures
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    void run(Collection<? extends I> items, int queueCapacity, Executor executor,
+             FailureHandler failureHandler) throws InterruptedException {
+        if (stages.isEmpty()) {
+            return;
+        }
+
+        List<BlockingQueue<Object>> queues = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        int workers = stages.stream().mapToInt(stage -> stage.parallelism).sum();
+        CountDownLatch finished = new CountDownLatch(workers);
+        for (int i = 0; i < stages.size(); i++) {
+            StageSpec stage = stages.get(i);
+            BlockingQueue<Object> in = queues.get(i);
+            BlockingQueue<Object> out = i + 1 < stages.size() ? queues.get(i + 1) : null;
+            int nextParallelism = out == null ? 0 : stages.get(i + 1).parallelism;
+            AtomicInteger activeWorkers = new AtomicInteger(stage.parallelism);
+            for (int w = 0; w < stage.parallelism; w++) {
+                executor.execute(() -> {
+                    try {
+                        work(stage, in, out, failureHandler);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        logger.warn("Worker of the stage {} is interrupted", stage.name);
+                    } finally {
+                        // the last worker of the stage tells every worker of the next stage to finish
+                        if (activeWorkers.decrementAndGet() == 0 && out != null) {
+                            endAll(out, nextParallelism);
+                        }
+                        finished.countDown();
+                    }
+                });
+            }
+        }
+
+        BlockingQueue<Object> first = queues.get(0);
+        try {
+            for (I item : items) {
+                first.put(item);
+            }
+        } finally {
+            endAll(first, stages.get(0).parallelism);
+        }
+        finished.await();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void work(StageSpec stage, BlockingQueue<Object> in, BlockingQueue<Object> out,
+                             FailureHandler failureHandler) throws InterruptedException {
+        Stage<Object, Object> function = (Stage<Object, Object>) stage.function;
+        for (Object item = in.take(); item != END; item = in.take()) {
+            Object result;
+            try {
+                result = function.process(item);
+            } catch (Exception e) {
+                failureHandler.onFailure(stage.name, item, e);
+                continue;
+            }
+            if (result != null && out != null) {
+                out.put(result);
+            }
+        }
+    }
+
+    private static void endAll(BlockingQueue<Object> queue, int workers) {
+        for (int i = 0; i < workers; i++) {
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                // the end marker should reach the workers anyway, otherwise they wait forever
+                Thread.currentThread().interrupt();
+                while (!queue.offer(END)) {
+                    queue.poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the executor of the workers: virtual threads if they are supported by the JDK, the cached pool
+     * of daemon threads otherwise.
+     * @return executor, it should be shut down by the caller
+     */
+    static ExecutorService newWorkerExecutor() {
+        try {
+            // Executors.newVirtualThreadPerTaskExecutor() is available since JDK 21
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.debug("Virtual threads are not supported, the platform threads are used");
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "skills-pipeline-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    /**
+     * Processing of an item by a stage.
+     * @param <T> type of the input item
+     * @param <R> type of the output item
+     */
+    @FunctionalInterface
+    interface Stage<T, R> {
+
+        R process(T item) throws Exception;
+    }
+
+    /**
+     * Handler of the items' failures, it is called by the workers concurrently.
+     */
+    @FunctionalInterface
+    interface FailureHandler {
+
+        void onFailure(String stage, Object item, Exception e);
+    }
+
+    private static class StageSpec {
+
+        private final String name;
+
+        private final int parallelism;
+
+        private final Stage<?, ?> function;
+
+        StageSpec(String name, int parallelism, Stage<?, ?> function) {
+            this.name = name;
+            this.parallelism = parallelism;
+            this.function = function;
+        }
+    }
+}
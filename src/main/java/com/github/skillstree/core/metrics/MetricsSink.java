@@ -0,0 +1,40 @@
+package com.github.skillstree.core.metrics;
+
+/**
+ * Sink of the metrics of the skills trees updates and of the database queries. The tags are passed as
+ * key-value pairs: {@code "tree", "java", "stage", "parse"}.
+ */
+public interface MetricsSink {
+
+    /**
+     * Records the duration of an operation.
+     * @param name          name of the timer
+     * @param durationNanos duration in nanoseconds
+     * @param tags          key-value pairs of the tags
+     */
+    void recordTime(String name, long durationNanos, String... tags);
+
+    /**
+     * Increments the counter.
+     * @param name   name of the counter
+     * @param amount amount to add
+     * @param tags   key-value pairs of the tags
+     */
+    void count(String name, long amount, String... tags);
+
+    /**
+     * Records the amount to the distribution, e.g. the size of a JSON.
+     * @param name   name of the distribution
+     * @param amount recorded amount
+     * @param tags   key-value pairs of the tags
+     */
+    void recordAmount(String name, long amount, String... tags);
+
+    /**
+     * Returns the sink, which discards all the metrics.
+     * @return no-op sink
+     */
+    static MetricsSink noop() {
+        return NoopMetricsSink.INSTANCE;
+    }
+}
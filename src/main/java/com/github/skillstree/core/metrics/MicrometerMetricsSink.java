@@ -0,0 +1,44 @@
+package com.github.skillstree.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Sink, which records the metrics to a Micrometer {@link MeterRegistry}. The timers and the distributions
+ * publish percentile histograms, so the latency SLOs can be computed by the monitoring system.
+ * Micrometer is an optional dependency, it should be provided by the application using this sink.
+ */
+public class MicrometerMetricsSink implements MetricsSink {
+
+    private final MeterRegistry registry;
+
+    public MicrometerMetricsSink(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordTime(String name, long durationNanos, String... tags) {
+        Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void count(String name, long amount, String... tags) {
+        registry.counter(name, tags).increment(amount);
+    }
+
+    @Override
+    public void recordAmount(String name, long amount, String... tags) {
+        DistributionSummary.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(amount);
+    }
+}
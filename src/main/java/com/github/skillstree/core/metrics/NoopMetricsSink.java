@@ -0,0 +1,24 @@
+package com.github.skillstree.core.metrics;
+
+/**
+ * Sink, which discards all the metrics.
+ */
+final class NoopMetricsSink implements MetricsSink {
+
+    static final NoopMetricsSink INSTANCE = new NoopMetricsSink();
+
+    private NoopMetricsSink() {
+    }
+
+    @Override
+    public void recordTime(String name, long durationNanos, String... tags) {
+    }
+
+    @Override
+    public void count(String name, long amount, String... tags) {
+    }
+
+    @Override
+    public void recordAmount(String name, long amount, String... tags) {
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.skillstree.core.metrics;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of the skills trees updates. The stages and the counters are recorded to the {@link MetricsSink}
+ * tagged with the stage and the tree, and are collected to the {@link UpdateRunSummary} of the current run.
+ * <ul>
+ *     <li>{@value #STAGE_TIMER} timer, tagged with {@code stage} and {@code tree}
+ *     ({@value #ALL_TREES} for the stages, which are not specific to a tree);</li>
+ *     <li>{@value #RUN_TIMER} timer of the whole run;</li>
+ *     <li>{@code skills.update.<counter>} counters or distributions of the sizes, tagged with {@code tree}.</li>
+ * </ul>
+ */
+public class UpdateMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpdateMetrics.class);
+
+    public static final String STAGE_TIMER = "skills.update.stage";
+
+    public static final String RUN_TIMER = "skills.update.run";
+
+    public static final String ALL_TREES = "all";
+
+    private static final String COUNTER_PREFIX = "skills.update.";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final MetricsSink sink;
+
+    private volatile UpdateRunSummary summary;
+
+    private volatile long runStartNanos;
+
+    public UpdateMetrics(MetricsSink sink) {
+        this.sink = sink;
+    }
+
+    public MetricsSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Starts a new run, the summary of the previous unfinished run is discarded.
+     */
+    public void startRun() {
+        runStartNanos = System.nanoTime();
+        summary = new UpdateRunSummary(Instant.now());
+    }
+
+    public boolean isRunStarted() {
+        return summary != null;
+    }
+
+    /**
+     * Starts the timer of the stage, it is stopped and recorded by {@link Stage#close()}.
+     * @param stage name of the stage
+     * @param tree  name of the tree or null if the stage is not specific to a tree
+     * @return stage timer
+     */
+    public Stage stage(String stage, String tree) {
+        return new Stage(stage, tree, System.nanoTime());
+    }
+
+    /**
+     * Runs the action timed as the stage, the stage is recorded even if the action fails.
+     * @param stage  name of the stage
+     * @param tree   name of the tree or null if the stage is not specific to a tree
+     * @param action timed action
+     * @param <T>    type of the result
+     * @param <E>    type of the exception thrown by the action
+     * @return result of the action
+     * @throws E if the action failed
+     */
+    public <T, E extends Exception> T time(String stage, String tree, StageAction<T, E> action) throws E {
+        Stage timer = stage(stage, tree);
+        try {
+            return action.run();
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Runs the action without a result timed as the stage, the stage is recorded even if the action fails.
+     * @param stage  name of the stage
+     * @param tree   name of the tree or null if the stage is not specific to a tree
+     * @param action timed action
+     * @param <E>    type of the exception thrown by the action
+     * @throws E if the action failed
+     */
+    public <E extends Exception> void time(String stage, String tree, StageRunnable<E> action) throws E {
+        Stage timer = stage(stage, tree);
+        try {
+            action.run();
+        } finally {
+            timer.close();
+        }
+    }
+
+    /**
+     * Increments the counter.
+     * @param counter name of the counter, e.g. {@code files}
+     * @param tree    name of the tree or null if the counter is not specific to a tree
+     * @param amount  amount to add
+     */
+    public void count(String counter, String tree, long amount) {
+        sink.count(COUNTER_PREFIX + counter, amount, "tree", tree == null ? ALL_TREES : tree);
+        UpdateRunSummary current = summary;
+        if (current != null) {
+            current.addCounter(counter, tree, amount);
+        }
+    }
+
+    /**
+     * Records the size to the distribution, the distribution keeps the total as well, so the size is added
+     * to the counter of the same name only in the run summary.
+     * @param counter name of the distribution, e.g. {@code jsonBytes}
+     * @param tree    name of the tree or null if the size is not specific to a tree
+     * @param size    recorded size
+     */
+    public void size(String counter, String tree, long size) {
+        sink.recordAmount(COUNTER_PREFIX + counter, size, "tree", tree == null ? ALL_TREES : tree);
+        UpdateRunSummary current = summary;
+        if (current != null) {
+            current.addCounter(counter, tree, size);
+        }
+    }
+
+    /**
+     * Finishes the current run and logs its summary as JSON.
+     * @param commitId id of the published commit
+     * @return summary of the run or null if no run is started
+     */
+    public UpdateRunSummary finishRun(String commitId) {
+        UpdateRunSummary current = summary;
+        if (current == null) {
+            return null;
+        }
+        summary = null;
+
+        long duration = System.nanoTime() - runStartNanos;
+        sink.recordTime(RUN_TIMER, duration);
+        current.complete(commitId, TimeUnit.NANOSECONDS.toMillis(duration));
+        try {
+            logger.info("Skills update run summary: {}", objectMapper.writeValueAsString(current));
+        } catch (JsonProcessingException e) {
+            logger.warn("Cannot serialize the run summary", e);
+        }
+        return current;
+    }
+
+    /**
+     * Action timed by {@link #time(String, String, StageAction)}.
+     * @param <T> type of the result
+     * @param <E> type of the exception thrown by the action
+     */
+    @FunctionalInterface
+    public interface StageAction<T, E extends Exception> {
+
+        T run() throws E;
+    }
+
+    /**
+     * Action without a result timed by {@link #time(String, String, StageRunnable)}.
+     * @param <E> type of the exception thrown by the action
+     */
+    @FunctionalInterface
+    public interface StageRunnable<E extends Exception> {
+
+        void run() throws E;
+    }
+
+    /**
+     * Timer of a stage.
+     */
+    public class Stage implements AutoCloseable {
+
+        private final String stage;
+
+        private final String tree;
+
+        private final long startNanos;
+
+        Stage(String stage, String tree, long startNanos) {
+            this.stage = stage;
+            this.tree = tree;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            long duration = System.nanoTime() - startNanos;
+            sink.recordTime(STAGE_TIMER, duration, "stage", stage, "tree", tree == null ? ALL_TREES : tree);
+            UpdateRunSummary current = summary;
+            if (current != null) {
+                current.addStage(stage, tree, TimeUnit.NANOSECONDS.toMillis(duration));
+            }
+        }
+    }
+}
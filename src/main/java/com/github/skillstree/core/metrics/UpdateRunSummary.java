@@ -0,0 +1,97 @@
+package com.github.skillstree.core.metrics;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Summary of a single run of the skills trees update: the durations of the stages in milliseconds and
+ * the counters, both in total and per tree. It is serialized to JSON by {@link UpdateMetrics#finishRun(String)}.
+ */
+public class UpdateRunSummary {
+
+    private final Instant startedAt;
+
+    private long durationMillis;
+
+    private String commitId;
+
+    private final Map<String, Long> stages = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Long> counters = new ConcurrentSkipListMap<>();
+
+    private final Map<String, TreeSummary> trees = new ConcurrentSkipListMap<>();
+
+    UpdateRunSummary(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    void addStage(String stage, String tree, long millis) {
+        stages.merge(stage, millis, Long::sum);
+        if (tree != null) {
+            tree(tree).stages.merge(stage, millis, Long::sum);
+        }
+    }
+
+    void addCounter(String counter, String tree, long amount) {
+        counters.merge(counter, amount, Long::sum);
+        if (tree != null) {
+            tree(tree).counters.merge(counter, amount, Long::sum);
+        }
+    }
+
+    void complete(String commitId, long durationMillis) {
+        this.commitId = commitId;
+        this.durationMillis = durationMillis;
+    }
+
+    private TreeSummary tree(String tree) {
+        return trees.computeIfAbsent(tree, t -> new TreeSummary());
+    }
+
+    /**
+     * Returns the start time of the run.
+     * @return ISO-8601 instant
+     */
+    public String getStartedAt() {
+        return startedAt.toString();
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public Map<String, Long> getStages() {
+        return stages;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, TreeSummary> getTrees() {
+        return trees;
+    }
+
+    /**
+     * Durations of the stages and the counters of a single tree.
+     */
+    public static class TreeSummary {
+
+        private final Map<String, Long> stages = new ConcurrentSkipListMap<>();
+
+        private final Map<String, Long> counters = new ConcurrentSkipListMap<>();
+
+        public Map<String, Long> getStages() {
+            return stages;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+    }
+}
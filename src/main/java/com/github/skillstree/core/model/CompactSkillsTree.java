@@ -0,0 +1,439 @@
+package com.github.skillstree.core.model;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+/**
+ * Immutable compact form of {@link SkillsTree}. The skills are numbered densely in preorder, the root is 0,
+ * so a subtree occupies a contiguous range of the numbers. The children are kept in the CSR layout: the
+ * children of the skill {@code i} are {@code children[childOffsets[i]..childOffsets[i + 1])}. The ids are
+ * kept as pairs of longs and the equal strings are shared, there are no objects per skill.
+ */
+public final class CompactSkillsTree {
+
+    public static final int ROOT = 0;
+
+    private final long[] idMostSigBits;
+
+    private final long[] idLeastSigBits;
+
+    private final String[] codes;
+
+    private final String[] names;
+
+    private final String[] fullNames;
+
+    private final String[] descriptions;
+
+    private final int[] childOffsets;
+
+    private final int[] children;
+
+    /**
+     * Open addressing index of the ids, a slot keeps the number of the skill plus one, 0 means an empty slot.
+     */
+    private final int[] idIndex;
+
+    private CompactSkillsTree(int size) {
+        idMostSigBits = new long[size];
+        idLeastSigBits = new long[size];
+        codes = new String[size];
+        names = new String[size];
+        fullNames = new String[size];
+        descriptions = new String[size];
+        childOffsets = new int[size + 1];
+        children = new int[Math.max(size - 1, 0)];
+        idIndex = new int[Integer.highestOneBit(Math.max(size, 1) * 2 - 1) * 2];
+    }
+
+    /**
+     * Creates the compact form of the skills tree.
+     * @param skillsTree {@link SkillsTree}
+     * @return {@link CompactSkillsTree}
+     */
+    public static CompactSkillsTree of(SkillsTree skillsTree) {
+        Map<UUID, Skill> skills = skillsTree.getSkills();
+        List<Skill> preorder = new ArrayList<>(skills.size());
+        collect(skillsTree.getRootSkill(), skills, preorder);
+
+        CompactSkillsTree tree = new CompactSkillsTree(preorder.size());
+        Map<String, String> strings = new HashMap<>();
+        for (int i = 0; i < preorder.size(); i++) {
+            Skill skill = preorder.get(i);
+            long mostSigBits = skill.getId().getMostSignificantBits();
+            long leastSigBits = skill.getId().getLeastSignificantBits();
+            if (tree.indexOf(mostSigBits, leastSigBits) >= 0) {
+                throw new IllegalArgumentException("Skill " + skill.getCode() + " occurs twice in the tree");
+            }
+            tree.idMostSigBits[i] = mostSigBits;
+            tree.idLeastSigBits[i] = leastSigBits;
+            tree.codes[i] = dedup(skill.getCode(), strings);
+            tree.names[i] = dedup(skill.getName(), strings);
+            tree.fullNames[i] = dedup(skill.getFullName(), strings);
+            tree.descriptions[i] = dedup(skill.getDescription(), strings);
+            tree.index(i);
+        }
+
+        int offset = 0;
+        for (int i = 0; i < preorder.size(); i++) {
+            tree.childOffsets[i] = offset;
+            for (UUID childId : preorder.get(i).getChildren()) {
+                // the ids are indexed already, so the children are numbered without boxing
+                tree.children[offset++] = tree.indexOf(childId);
+            }
+        }
+        tree.childOffsets[preorder.size()] = offset;
+        return tree;
+    }
+
+    private static void collect(Skill skill, Map<UUID, Skill> skills, List<Skill> preorder) {
+        preorder.add(skill);
+        for (UUID childId : skill.getChildren()) {
+            Skill child = skills.get(childId);
+            if (child == null) {
+                throw new IllegalArgumentException("Child " + childId + " of " + skill.getCode() +
+                        " is not found in the tree");
+            }
+            collect(child, skills, preorder);
+        }
+    }
+
+    /**
+     * Creates the compact form of the partially expanded skills tree. The skills, which are missing from
+     * the map of the tree, are taken from the base tree together with their subtrees, the ranges of such
+     * subtrees are copied as they are, so only the expanded skills cost the objects.
+     * @param skillsTree {@link SkillsTree} with the changed skills and their ancestors, the parent of every
+     *                   skill in the map should be in the map as well
+     * @param base       compact form of the previous version of the tree
+     * @return {@link CompactSkillsTree}
+     */
+    public static CompactSkillsTree of(SkillsTree skillsTree, CompactSkillsTree base) {
+        int[] baseSubtreeEnds = base.subtreeEnds();
+        List<Segment> segments = new ArrayList<>();
+        int size = collect(skillsTree.getRootSkill(), skillsTree.getSkills(), base, baseSubtreeEnds, segments);
+
+        CompactSkillsTree tree = new CompactSkillsTree(size);
+        Map<String, String> strings = new HashMap<>();
+        int i = 0;
+        for (Segment segment : segments) {
+            if (segment.skill != null) {
+                Skill skill = segment.skill;
+                tree.idMostSigBits[i] = skill.getId().getMostSignificantBits();
+                tree.idLeastSigBits[i] = skill.getId().getLeastSignificantBits();
+                tree.codes[i] = dedup(skill.getCode(), strings);
+                tree.names[i] = dedup(skill.getName(), strings);
+                tree.fullNames[i] = dedup(skill.getFullName(), strings);
+                tree.descriptions[i] = dedup(skill.getDescription(), strings);
+            } else {
+                int start = segment.baseStart;
+                System.arraycopy(base.idMostSigBits, start, tree.idMostSigBits, i, segment.size);
+                System.arraycopy(base.idLeastSigBits, start, tree.idLeastSigBits, i, segment.size);
+                System.arraycopy(base.codes, start, tree.codes, i, segment.size);
+                System.arraycopy(base.names, start, tree.names, i, segment.size);
+                System.arraycopy(base.fullNames, start, tree.fullNames, i, segment.size);
+                System.arraycopy(base.descriptions, start, tree.descriptions, i, segment.size);
+            }
+            for (int end = i + segment.size; i < end; i++) {
+                if (tree.indexOf(tree.idMostSigBits[i], tree.idLeastSigBits[i]) >= 0) {
+                    throw new IllegalArgumentException("Skill " + tree.codes[i] + " occurs twice in the tree");
+                }
+                tree.index(i);
+            }
+        }
+
+        int offset = 0;
+        i = 0;
+        for (Segment segment : segments) {
+            if (segment.skill != null) {
+                tree.childOffsets[i++] = offset;
+                for (UUID childId : segment.skill.getChildren()) {
+                    tree.children[offset++] = tree.indexOf(childId);
+                }
+                continue;
+            }
+            // the children of a subtree are kept together and refer to the same subtree, so they are shifted
+            int start = segment.baseStart;
+            int baseOffset = base.childOffsets[start];
+            for (int j = 0; j < segment.size; j++) {
+                tree.childOffsets[i + j] = offset + base.childOffsets[start + j] - baseOffset;
+            }
+            int shift = i - start;
+            for (int c = 0; c < segment.size - 1; c++) {
+                tree.children[offset + c] = base.children[baseOffset + c] + shift;
+            }
+            offset += segment.size - 1;
+            i += segment.size;
+        }
+        tree.childOffsets[size] = offset;
+        return tree;
+    }
+
+    private static int collect(Skill skill, Map<UUID, Skill> skills, CompactSkillsTree base, int[] baseSubtreeEnds,
+                               List<Segment> segments) {
+        segments.add(new Segment(skill, -1, 1));
+        int size = 1;
+        for (UUID childId : skill.getChildren()) {
+            Skill child = skills.get(childId);
+            if (child != null) {
+                size += collect(child, skills, base, baseSubtreeEnds, segments);
+                continue;
+            }
+            int baseSkill = base.indexOf(childId);
+            if (baseSkill < 0) {
+                throw new IllegalArgumentException("Child " + childId + " of " + skill.getCode() +
+                        " is not found in the tree");
+            }
+            int subtreeSize = baseSubtreeEnds[baseSkill] - baseSkill;
+            segments.add(new Segment(null, baseSkill, subtreeSize));
+            size += subtreeSize;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the ends of the ranges of the subtrees, exclusive.
+     */
+    private int[] subtreeEnds() {
+        int[] ends = new int[size()];
+        for (int i = size() - 1; i >= 0; i--) {
+            // the subtree of the last child closes the subtree of its parent
+            ends[i] = childOffsets[i] == childOffsets[i + 1] ? i + 1 : ends[children[childOffsets[i + 1] - 1]];
+        }
+        return ends;
+    }
+
+    private static String dedup(String value, Map<String, String> strings) {
+        return value == null ? null : strings.computeIfAbsent(value, v -> v);
+    }
+
+    private void index(int skill) {
+        int mask = idIndex.length - 1;
+        int slot = hash(idMostSigBits[skill], idLeastSigBits[skill]) & mask;
+        while (idIndex[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        idIndex[slot] = skill + 1;
+    }
+
+    private static int hash(long mostSigBits, long leastSigBits) {
+        long h = (mostSigBits ^ leastSigBits) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Writes the tree in the binary form, which is read by {@link #readFrom(ByteBuffer, String[])}. The strings
+     * are written as their numbers in the string table, which is kept by the caller.
+     * @param out       output to write to
+     * @param stringIds numbering of the strings, should return -1 for null
+     * @throws IOException if a problem with writing occurred
+     */
+    public void writeTo(DataOutput out, ToIntFunction<String> stringIds) throws IOException {
+        int size = size();
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(idMostSigBits[i]);
+            out.writeLong(idLeastSigBits[i]);
+        }
+        for (String[] strings : new String[][]{codes, names, fullNames, descriptions}) {
+            for (String string : strings) {
+                out.writeInt(stringIds.applyAsInt(string));
+            }
+        }
+        for (int offset : childOffsets) {
+            out.writeInt(offset);
+        }
+        for (int child : children) {
+            out.writeInt(child);
+        }
+    }
+
+    /**
+     * Reads the tree written by {@link #writeTo(DataOutput, ToIntFunction)}, the buffer is positioned after
+     * the tree then.
+     * @param buffer  buffer to read from
+     * @param strings string table, the strings are shared by the tree
+     * @return {@link CompactSkillsTree}
+     * @throws IllegalArgumentException if the tree's structure is not valid
+     */
+    public static CompactSkillsTree readFrom(ByteBuffer buffer, String[] strings) {
+        int size = buffer.getInt();
+        if (size <= 0 || size > buffer.remaining() / Long.BYTES / 2) {
+            throw new IllegalArgumentException("Invalid size of the tree: " + size);
+        }
+        CompactSkillsTree tree = new CompactSkillsTree(size);
+        for (int i = 0; i < size; i++) {
+            tree.idMostSigBits[i] = buffer.getLong();
+            tree.idLeastSigBits[i] = buffer.getLong();
+        }
+        for (String[] values : new String[][]{tree.codes, tree.names, tree.fullNames, tree.descriptions}) {
+            for (int i = 0; i < size; i++) {
+                int id = buffer.getInt();
+                values[i] = id < 0 ? null : strings[id];
+            }
+        }
+        buffer.asIntBuffer().get(tree.childOffsets).get(tree.children);
+        buffer.position(buffer.position() + (tree.childOffsets.length + tree.children.length) * Integer.BYTES);
+
+        // the preorder numbering: the first child follows its parent and every next child follows the subtree
+        // of the previous one, so the subtrees are contiguous. The subtree of the root covers all the skills
+        // and there are size - 1 children, so every skill but the root has exactly one parent.
+        if (tree.childOffsets[0] != 0 || tree.childOffsets[size] != tree.children.length) {
+            throw new IllegalArgumentException("Invalid children of the tree");
+        }
+        int[] subtreeEnds = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            if (tree.childOffsets[i] > tree.childOffsets[i + 1]) {
+                throw new IllegalArgumentException("Invalid children of the skill " + i);
+            }
+            int next = i + 1;
+            for (int c = tree.childOffsets[i]; c < tree.childOffsets[i + 1]; c++) {
+                if (next >= size || tree.children[c] != next) {
+                    throw new IllegalArgumentException("Invalid child of the skill " + i);
+                }
+                next = subtreeEnds[next];
+            }
+            subtreeEnds[i] = next;
+        }
+        if (subtreeEnds[ROOT] != size) {
+            throw new IllegalArgumentException("Not all the skills belong to the tree");
+        }
+        for (int i = 0; i < size; i++) {
+            if (tree.indexOf(tree.idMostSigBits[i], tree.idLeastSigBits[i]) >= 0) {
+                throw new IllegalArgumentException("Skill " + tree.codes[i] + " occurs twice in the tree");
+            }
+            tree.index(i);
+        }
+        return tree;
+    }
+
+    /**
+     * Creates the mutable {@link SkillsTree} with the same skills.
+     * @return {@link SkillsTree}
+     */
+    public SkillsTree toSkillsTree() {
+        Map<UUID, Skill> skills = new HashMap<>(size() * 2);
+        for (int i = 0; i < size(); i++) {
+            List<UUID> childIds = new ArrayList<>(getChildCount(i));
+            for (int c = childOffsets[i]; c < childOffsets[i + 1]; c++) {
+                childIds.add(getId(children[c]));
+            }
+            Skill skill = new Skill()
+                    .setId(getId(i))
+                    .setCode(codes[i])
+                    .setName(names[i])
+                    .setFullName(fullNames[i])
+                    .setDescription(descriptions[i])
+                    .setChildren(childIds);
+            skills.put(skill.getId(), skill);
+        }
+        return new SkillsTree()
+                .setRootSkill(skills.get(getId(ROOT)))
+                .setSkills(skills);
+    }
+
+    /**
+     * Returns the number of the skills in the tree.
+     * @return number of skills
+     */
+    public int size() {
+        return codes.length;
+    }
+
+    /**
+     * Finds the number of the skill by its id.
+     * @param id skill id
+     * @return number of the skill or -1 if there is no such skill in the tree
+     */
+    public int indexOf(UUID id) {
+        return indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * Finds the number of the skill by its id.
+     * @param mostSigBits  most significant bits of the skill id
+     * @param leastSigBits least significant bits of the skill id
+     * @return number of the skill or -1 if there is no such skill in the tree
+     */
+    public int indexOf(long mostSigBits, long leastSigBits) {
+        int mask = idIndex.length - 1;
+        int slot = hash(mostSigBits, leastSigBits) & mask;
+        while (idIndex[slot] != 0) {
+            int skill = idIndex[slot] - 1;
+            if (idMostSigBits[skill] == mostSigBits && idLeastSigBits[skill] == leastSigBits) {
+                return skill;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public UUID getId(int skill) {
+        return new UUID(idMostSigBits[skill], idLeastSigBits[skill]);
+    }
+
+    public long getIdMostSigBits(int skill) {
+        return idMostSigBits[skill];
+    }
+
+    public long getIdLeastSigBits(int skill) {
+        return idLeastSigBits[skill];
+    }
+
+    public String getCode(int skill) {
+        return codes[skill];
+    }
+
+    public String getName(int skill) {
+        return names[skill];
+    }
+
+    public String getFullName(int skill) {
+        return fullNames[skill];
+    }
+
+    public String getDescription(int skill) {
+        return descriptions[skill];
+    }
+
+    public int getChildCount(int skill) {
+        return childOffsets[skill + 1] - childOffsets[skill];
+    }
+
+    /**
+     * Returns the child of the skill.
+     * @param skill number of the skill
+     * @param i     position of the child among the skill's children
+     * @return number of the child
+     */
+    public int getChild(int skill, int i) {
+        if (i < 0 || i >= getChildCount(skill)) {
+            throw new IndexOutOfBoundsException("Skill " + skill + " has no child " + i);
+        }
+        return children[childOffsets[skill] + i];
+    }
+
+    /**
+     * Either an expanded skill or a subtree of the base tree, which is copied as a whole.
+     */
+    private static final class Segment {
+
+        private final Skill skill;
+
+        private final int baseStart;
+
+        private final int size;
+
+        Segment(Skill skill, int baseStart, int size) {
+            this.skill = skill;
+            this.baseStart = baseStart;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.skillstree.core.model;
+
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Progress of a user in a skills tree: the number of the obtained skills and the sum of their levels in every
+ * subtree. It is computed in a single pass over the tree and updated along the paths to the root when a few
+ * of the user's skills change. The progress is bound to the version of the tree it is computed for, it should
+ * be computed again when the tree is reloaded. It is not thread-safe.
+ */
+public final class SkillsProgress {
+
+    private final SkillsTreeIndex index;
+
+    private final int[] levels;
+
+    private final long[] levelSums;
+
+    private final int[] obtainedCounts;
+
+    private SkillsProgress(SkillsTreeIndex index) {
+        this.index = index;
+        int size = index.getTree().size();
+        levels = new int[size];
+        levelSums = new long[size];
+        obtainedCounts = new int[size];
+    }
+
+    /**
+     * Computes the progress of the user in the skills tree.
+     * @param index      index of the skills tree
+     * @param userSkills skills obtained by the user, the skills of the other trees are ignored
+     * @return {@link SkillsProgress}
+     */
+    public static SkillsProgress of(SkillsTreeIndex index, Collection<UserSkill> userSkills) {
+        SkillsProgress progress = new SkillsProgress(index);
+        CompactSkillsTree tree = index.getTree();
+        for (UserSkill userSkill : userSkills) {
+            int skill = tree.indexOf(userSkill.getSkillId());
+            if (skill >= 0) {
+                progress.levels[skill] = userSkill.getLevel();
+            }
+        }
+
+        // the children follow their parents in preorder, so the reverse order rolls the subtrees up
+        for (int skill = tree.size() - 1; skill >= 0; skill--) {
+            progress.levelSums[skill] += progress.levels[skill];
+            progress.obtainedCounts[skill] += progress.levels[skill] > 0 ? 1 : 0;
+            int parent = index.getParent(skill);
+            if (parent >= 0) {
+                progress.levelSums[parent] += progress.levelSums[skill];
+                progress.obtainedCounts[parent] += progress.obtainedCounts[skill];
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * Applies the changed levels of the user's skills, only the paths from the changed skills to the root
+     * are updated.
+     * @param changedSkills changed skills of the user, the skills of the other trees are ignored
+     * @return this progress
+     */
+    public SkillsProgress update(Collection<UserSkill> changedSkills) {
+        CompactSkillsTree tree = index.getTree();
+        for (UserSkill userSkill : changedSkills) {
+            int skill = tree.indexOf(userSkill.getSkillId());
+            if (skill < 0) {
+                continue;
+            }
+            int oldLevel = levels[skill];
+            int newLevel = userSkill.getLevel();
+            long levelDelta = (long) newLevel - oldLevel;
+            int obtainedDelta = (newLevel > 0 ? 1 : 0) - (oldLevel > 0 ? 1 : 0);
+            levels[skill] = newLevel;
+            for (int current = skill; current >= 0; current = index.getParent(current)) {
+                levelSums[current] += levelDelta;
+                obtainedCounts[current] += obtainedDelta;
+            }
+        }
+        return this;
+    }
+
+    public SkillsTreeIndex getIndex() {
+        return index;
+    }
+
+    public int getLevel(int skill) {
+        return levels[skill];
+    }
+
+    /**
+     * Returns the sum of the levels of the obtained skills in the subtree.
+     * @param skill number of the subtree's root skill
+     * @return sum of the levels
+     */
+    public long getLevelSum(int skill) {
+        return levelSums[skill];
+    }
+
+    /**
+     * Returns the number of the obtained skills in the subtree.
+     * @param skill number of the subtree's root skill
+     * @return number of the obtained skills
+     */
+    public int getObtainedCount(int skill) {
+        return obtainedCounts[skill];
+    }
+
+    /**
+     * Returns the progress in the subtree: the sum of the levels of the obtained skills divided by the size
+     * of the subtree.
+     * @param skill number of the subtree's root skill
+     * @return progress
+     */
+    public double getProgress(int skill) {
+        return (double) levelSums[skill] / index.getSubtreeSize(skill);
+    }
+
+    /**
+     * Returns the progress in the subtree: the sum of the levels of the obtained skills divided by the size
+     * of the subtree.
+     * @param skillId id of the subtree's root skill
+     * @return progress or 0 if there is no such skill in the tree
+     */
+    public double getProgress(UUID skillId) {
+        int skill = index.getTree().indexOf(skillId);
+        return skill < 0 ? 0 : getProgress(skill);
+    }
+
+    /**
+     * Returns the progress in the whole tree.
+     * @return progress
+     */
+    public double getTotalProgress() {
+        return getProgress(CompactSkillsTree.ROOT);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.skillstree.core.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Index of the ancestry of the skills in {@link CompactSkillsTree}. The skills are numbered in preorder, so
+ * the number of a skill is its Euler tour entry time and the subtree of the skill {@code y} is the range
+ * {@code [y, exit(y))}. Together with the parents it answers the subtree queries in O(1) and the path
+ * queries in O(depth).
+ */
+public final class SkillsTreeIndex {
+
+    private final CompactSkillsTree tree;
+
+    private final int[] parents;
+
+    private final int[] exits;
+
+    private final int[] depths;
+
+    private SkillsTreeIndex(CompactSkillsTree tree) {
+        this.tree = tree;
+        int size = tree.size();
+        parents = new int[size];
+        exits = new int[size];
+        depths = new int[size];
+
+        parents[CompactSkillsTree.ROOT] = -1;
+        for (int skill = 0; skill < size; skill++) {
+            for (int i = 0; i < tree.getChildCount(skill); i++) {
+                int child = tree.getChild(skill, i);
+                parents[child] = skill;
+                depths[child] = depths[skill] + 1;
+            }
+        }
+        // a subtree ends where the subtree of the last child ends, the children follow their parents
+        for (int skill = size - 1; skill >= 0; skill--) {
+            int childCount = tree.getChildCount(skill);
+            exits[skill] = childCount == 0 ? skill + 1 : exits[tree.getChild(skill, childCount - 1)];
+        }
+    }
+
+    /**
+     * Builds the index of the skills tree.
+     * @param tree {@link CompactSkillsTree}
+     * @return {@link SkillsTreeIndex}
+     */
+    public static SkillsTreeIndex of(CompactSkillsTree tree) {
+        return new SkillsTreeIndex(tree);
+    }
+
+    public CompactSkillsTree getTree() {
+        return tree;
+    }
+
+    /**
+     * Returns the parent of the skill.
+     * @param skill number of the skill
+     * @return number of the parent or -1 for the root skill
+     */
+    public int getParent(int skill) {
+        return parents[skill];
+    }
+
+    /**
+     * Returns the depth of the skill, the depth of the root skill is 0.
+     * @param skill number of the skill
+     * @return depth
+     */
+    public int getDepth(int skill) {
+        return depths[skill];
+    }
+
+    /**
+     * Returns the end of the subtree's range of the numbers, exclusive.
+     * @param skill number of the subtree's root skill
+     * @return exit number
+     */
+    public int getExit(int skill) {
+        return exits[skill];
+    }
+
+    /**
+     * Returns the number of the skills in the subtree, including its root skill.
+     * @param skill number of the subtree's root skill
+     * @return size of the subtree
+     */
+    public int getSubtreeSize(int skill) {
+        return exits[skill] - skill;
+    }
+
+    /**
+     * Checks whether the skill is in the subtree, a skill is in its own subtree.
+     * @param skill   number of the skill
+     * @param subtree number of the subtree's root skill
+     * @return true if the skill is in the subtree
+     */
+    public boolean isInSubtree(int skill, int subtree) {
+        return subtree <= skill && skill < exits[subtree];
+    }
+
+    /**
+     * Checks whether the skill is in the subtree, a skill is in its own subtree.
+     * @param skillId   id of the skill
+     * @param subtreeId id of the subtree's root skill
+     * @return true if both skills are in the tree and the skill is in the subtree
+     */
+    public boolean isInSubtree(UUID skillId, UUID subtreeId) {
+        int skill = tree.indexOf(skillId);
+        int subtree = tree.indexOf(subtreeId);
+        return skill >= 0 && subtree >= 0 && isInSubtree(skill, subtree);
+    }
+
+    /**
+     * Returns the number of the skills in the subtree, including its root skill.
+     * @param subtreeId id of the subtree's root skill
+     * @return size of the subtree or 0 if there is no such skill in the tree
+     */
+    public int getSubtreeSize(UUID subtreeId) {
+        int subtree = tree.indexOf(subtreeId);
+        return subtree < 0 ? 0 : getSubtreeSize(subtree);
+    }
+
+    /**
+     * Returns the path from the skill to the root skill.
+     * @param skill number of the skill
+     * @return numbers of the skills, the first is the skill itself and the last is the root skill
+     */
+    public int[] getPathToRoot(int skill) {
+        int[] path = new int[depths[skill] + 1];
+        for (int i = 0, current = skill; current >= 0; i++, current = parents[current]) {
+            path[i] = current;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the path from the skill to the root skill.
+     * @param skillId id of the skill
+     * @return ids of the skills, the first is the skill itself and the last is the root skill,
+     *         or an empty list if there is no such skill in the tree
+     */
+    public List<UUID> getPathToRoot(UUID skillId) {
+        int skill = tree.indexOf(skillId);
+        if (skill < 0) {
+            return Collections.emptyList();
+        }
+        List<UUID> path = new ArrayList<>(depths[skill] + 1);
+        for (int current : getPathToRoot(skill)) {
+            path.add(tree.getId(current));
+        }
+        return path;
+    }
+}
@@ -1,26 +1,121 @@
 package com.github.skillstree.core.service;
 
-import java.security.interfaces.RSAPublicKey;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
-import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.UrlJwkProvider;
 import com.auth0.jwt.JWT;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.JWTVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Checks the access of the tokens' owners to the users' paths: a user can access only their own
+ * {@code users/<id>} path.
+ * <p>
+ * The subjects of the verified tokens are cached by the SHA-256 digests of the tokens till the tokens expire,
+ * so the signature of a token is verified once per its lifetime rather than once per check. The tokens
+ * without the expiration time are verified every time. The tokens themselves are neither cached nor logged.
+ * <p>
+ * The issuers can be restricted by {@link #setAllowedIssuers(Collection)}, the default ones are read from
+ * the JWT_ALLOWED_ISSUERS environment variable separated by commas. The tokens of the other issuers are rejected
+ * before their keys are requested. Any issuer is allowed if none is set.
+ */
 public class Authorizer {
 
     private static final Logger logger = LoggerFactory.getLogger(Authorizer.class);
 
-    private static final Pattern USERS_PATH_PATTERN = Pattern.compile("(users\\/)([a-zA-Z0-9|]*)(\\/*)");
+    private static final String USERS_PATH_PREFIX = "users/";
+
+    private static final int DEFAULT_MAX_CACHED_TOKENS = 10_000;
+
+    private static final JwksKeyCache DEFAULT_KEY_CACHE = new JwksKeyCache(JwksKeySource.remote());
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    });
+
+    private final JwksKeyCache keyCache;
+
+    private final Clock clock;
+
+    private final Map<ByteBuffer, VerifiedToken> verifiedTokens;
+
+    private long verificationCount;
+
+    private volatile Set<String> allowedIssuers;
+
+    /**
+     * Creates an authorizer, which uses the keys cache shared by all such authorizers and fetches the keys
+     * from the tokens' issuers. The issuers are restricted by the JWT_ALLOWED_ISSUERS environment variable.
+     */
+    public Authorizer() {
+        this(DEFAULT_KEY_CACHE);
+        String issuers = System.getenv("JWT_ALLOWED_ISSUERS");
+        if (issuers != null && !issuers.isBlank()) {
+            setAllowedIssuers(Arrays.stream(issuers.split(",")).map(String::trim).collect(Collectors.toSet()));
+        }
+    }
+
+    /**
+     * Creates an authorizer, which uses the specified keys cache.
+     * @param keyCache cache of the issuers' keys
+     */
+    public Authorizer(JwksKeyCache keyCache) {
+        this(keyCache, DEFAULT_MAX_CACHED_TOKENS, Clock.systemUTC());
+    }
+
+    /**
+     * Constructor.
+     * @param keyCache        cache of the issuers' keys
+     * @param maxCachedTokens maximal number of the cached verified tokens
+     * @param clock           clock
+     */
+    public Authorizer(JwksKeyCache keyCache, int maxCachedTokens, Clock clock) {
+        if (maxCachedTokens <= 0) {
+            throw new IllegalArgumentException("Max cached tokens should be positive");
+        }
+        this.keyCache = keyCache;
+        this.clock = clock;
+        this.verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, VerifiedToken> eldest) {
+                return size() > maxCachedTokens;
+            }
+        };
+    }
+
+    /**
+     * Sets the issuers, which tokens are accepted. The tokens of the other issuers are rejected without
+     * requesting their keys, so the tokens cannot make the authorizer request arbitrary urls or evict the keys
+     * of the allowed issuers from the cache.
+     * @param allowedIssuers issuers, e.g. {@code https://example.auth0.com/}, or null to allow any issuer
+     * @return this authorizer
+     */
+    public Authorizer setAllowedIssuers(Collection<String> allowedIssuers) {
+        this.allowedIssuers = allowedIssuers == null ? null : Set.copyOf(allowedIssuers);
+        synchronized (verifiedTokens) {
+            // the tokens verified before might be issued by the issuers, which aren't allowed anymore
+            verifiedTokens.clear();
+        }
+        return this;
+    }
 
     /**
      * Checks if the owner of the JWT token has the access to the specified path,
@@ -29,35 +124,133 @@ public class Authorizer {
      * @return true / false
      */
     public boolean hasAccess(String path, String jwtToken) {
-        logger.info("Path: {}", path);
-        logger.info("JWT token: {}", jwtToken);
+        logger.debug("Path: {}", path);
+        int userIdStart = userIdStart(path);
+        String authorizedUserId = authorizedUserId(jwtToken);
+        return authorizedUserId != null && isAccessedUser(path, userIdStart, authorizedUserId);
+    }
+
+    /**
+     * Checks if the owner of the JWT token has the access to each of the specified paths, the token is verified
+     * once for all of them.
+     * @param paths    paths to which access is requested
+     * @param jwtToken JWT token
+     * @return access by the paths in the order of the paths
+     */
+    public Map<String, Boolean> hasAccess(Collection<String> paths, String jwtToken) {
+        int[] userIdStarts = new int[paths.size()];
+        int i = 0;
+        for (String path : paths) {
+            userIdStarts[i++] = userIdStart(path);
+        }
 
-        Matcher matcher = USERS_PATH_PATTERN.matcher(path);
-        if (matcher.find()) {
-            try {
-                DecodedJWT jwt = JWT.decode(jwtToken);
+        String authorizedUserId = authorizedUserId(jwtToken);
+        Map<String, Boolean> access = new LinkedHashMap<>();
+        i = 0;
+        for (String path : paths) {
+            access.put(path, authorizedUserId != null && isAccessedUser(path, userIdStarts[i++], authorizedUserId));
+        }
+        return access;
+    }
 
-                JwkProvider provider = new UrlJwkProvider(jwt.getIssuer());
-                Jwk jwk = provider.get(jwt.getKeyId());
+    /**
+     * Finds the accessed user's id in the path, like the {@code users/([a-zA-Z0-9|]*)} pattern does, but
+     * without the regular expression.
+     * @return index of the id's first character
+     */
+    private static int userIdStart(String path) {
+        int prefix = path.indexOf(USERS_PATH_PREFIX);
+        if (prefix < 0) {
+            logger.error("The path is incorrect: {}", path);
+            throw new IllegalArgumentException("This path is not a valid path to check the access");
+        }
+        return prefix + USERS_PATH_PREFIX.length();
+    }
 
-                Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) jwk.getPublicKey(), null);
-                JWTVerifier verifier = JWT.require(algorithm).build();
-                jwt = verifier.verify(jwtToken);
+    private static boolean isAccessedUser(String path, int userIdStart, String authorizedUserId) {
+        int userIdEnd = userIdStart;
+        while (userIdEnd < path.length() && isUserIdChar(path.charAt(userIdEnd))) {
+            userIdEnd++;
+        }
+        boolean accessed = userIdEnd - userIdStart == authorizedUserId.length() &&
+                path.regionMatches(userIdStart, authorizedUserId, 0, authorizedUserId.length());
+        if (!accessed && logger.isDebugEnabled()) {
+            logger.debug("AuthorizedUserId: {}, AccessedUserId: {}", authorizedUserId,
+                    path.substring(userIdStart, userIdEnd));
+        }
+        return accessed;
+    }
+
+    private static boolean isUserIdChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '|';
+    }
+
+    /**
+     * Returns the subject of the token, the token is verified unless it is verified already and not expired.
+     * @return subject or null if the token is not valid
+     */
+    private String authorizedUserId(String jwtToken) {
+        ByteBuffer digest = ByteBuffer.wrap(SHA_256.get().digest(jwtToken.getBytes(StandardCharsets.UTF_8)));
+        long now = clock.millis();
+        synchronized (verifiedTokens) {
+            VerifiedToken verified = verifiedTokens.get(digest);
+            if (verified != null) {
+                if (now < verified.expiresAt) {
+                    return verified.subject;
+                }
+                verifiedTokens.remove(digest);
+            }
+        }
 
-                final String authorizedUserId = jwt.getSubject();
-                final String accessedUserId = matcher.group(2);
-                logger.info("AuthorizedUserId: {}, AccessedUserId: {}", authorizedUserId, accessedUserId);
+        DecodedJWT jwt;
+        try {
+            jwt = JWT.decode(jwtToken);
+            Set<String> issuers = allowedIssuers;
+            if (issuers != null && (jwt.getIssuer() == null || !issuers.contains(jwt.getIssuer()))) {
+                logger.error("Token issuer is not allowed: {}", jwt.getIssuer());
+                return null;
+            }
+            JWTVerifier verifier = keyCache.getVerifier(jwt.getIssuer(), jwt.getKeyId());
+            synchronized (verifiedTokens) {
+                verificationCount++;
+            }
+            jwt = verifier.verify(jwt);
 
-                return authorizedUserId.equals(accessedUserId);
+        } catch (JWTVerificationException | JwkException | IllegalArgumentException e) {
+            // the malformed, expired and wrongly signed tokens are rejected alike, the decoder reports
+            // the broken Base64 by IllegalArgumentException
+            logger.error("Token is not valid", e);
+            return null;
+        }
 
-            } catch (JWTDecodeException | JwkException e) {
-                logger.error("Token is not valid", e);
-                return false;
+        Date expiresAt = jwt.getExpiresAt();
+        if (expiresAt != null && jwt.getSubject() != null) {
+            synchronized (verifiedTokens) {
+                verifiedTokens.put(digest, new VerifiedToken(jwt.getSubject(), expiresAt.getTime()));
             }
+        }
+        return jwt.getSubject();
+    }
 
-        } else {
-            logger.error("The path is incorrect: {}", path);
-            throw new IllegalArgumentException("This path is not a valid path to check the access");
+    /**
+     * Returns the number of the tokens' signature verifications.
+     * @return verification count
+     */
+    public long getVerificationCount() {
+        synchronized (verifiedTokens) {
+            return verificationCount;
+        }
+    }
+
+    private static class VerifiedToken {
+
+        private final String subject;
+
+        private final long expiresAt;
+
+        VerifiedToken(String subject, long expiresAt) {
+            this.subject = subject;
+            this.expiresAt = expiresAt;
         }
     }
 }
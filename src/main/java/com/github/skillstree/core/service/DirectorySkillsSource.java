@@ -0,0 +1,205 @@
+package com.github.skillstree.core.service;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.skillstree.core.transformer.SkillsFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SkillsSource} backed by a local directory, which is edited in place, e.g. by the authors of the skills
+ * checking their changes before the commit. The directory is watched by {@link WatchService}, the events
+ * received since the last {@link #retrieve()} are batched into a new version, and only the paths of that
+ * batch are re-parsed by the next update.
+ * <p>
+ * Together with {@link com.github.skillstree.core.SkillsUpdateWatcher} polling every few hundred
+ * milliseconds, an edit reaches the rendered tree in under a second. The hidden files and directories,
+ * like {@code .git}, are not watched. If the events are lost by the watch service, the next update parses
+ * the trees from scratch.
+ */
+public class DirectorySkillsSource implements SkillsSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectorySkillsSource.class);
+
+    private final Path dir;
+
+    private final String versionPrefix;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    private final Set<String> pendingChanges = new LinkedHashSet<>();
+
+    private boolean pendingOverflow;
+
+    private long latestGeneration;
+
+    private long retrievedGeneration = -1;
+
+    private long previousGeneration = -1;
+
+    private List<String> retrievedChanges;
+
+    /**
+     * Constructor, the directory is watched from now on.
+     * @param dir directory with the root skills directories
+     * @throws IOException if the directory cannot be watched
+     */
+    public DirectorySkillsSource(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("Skills directory doesn't exist: " + dir);
+        }
+        this.dir = dir.toAbsolutePath().normalize();
+        // the versions differ between the runs, so the first update after the start is never skipped
+        this.versionPrefix = "dir-" + Long.toHexString(System.currentTimeMillis()) + "-";
+        this.watchService = dir.getFileSystem().newWatchService();
+        registerAll(this.dir);
+        logger.info("Watching skills directory {}, {} directories", this.dir, watchedDirs.size());
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                if (!d.equals(start) && isHidden(d)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = d.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watchedDirs.put(key, d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isHidden(Path path) {
+        return path.getFileName().toString().startsWith(".");
+    }
+
+    /**
+     * Takes the events received by the watch service, a new version is started if any of them is relevant.
+     */
+    private void drainEvents() throws IOException {
+        boolean changed = false;
+        try {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                Path watchedDir = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        pendingOverflow = true;
+                        changed = true;
+                        continue;
+                    }
+                    Path child = watchedDir.resolve((Path) event.context());
+                    if (isHidden(child)) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE &&
+                            Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        // the new directory is parsed as a whole, its files don't have to be reported
+                        registerAll(child);
+                    }
+                    pendingChanges.add(relativePath(child));
+                    changed = true;
+                }
+                if (!key.reset()) {
+                    watchedDirs.remove(key);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            throw new IOException("Skills directory source is closed", e);
+        }
+        if (changed) {
+            latestGeneration++;
+        }
+    }
+
+    private String relativePath(Path path) {
+        StringBuilder result = new StringBuilder();
+        for (Path name : dir.relativize(path)) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(name);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public synchronized SkillsFile retrieve() throws IOException {
+        drainEvents();
+        retrievedChanges = pendingOverflow ? null : new ArrayList<>(pendingChanges);
+        if (retrievedChanges != null && !retrievedChanges.isEmpty()) {
+            logger.info("Changed skills files: {}", retrievedChanges);
+        }
+        pendingChanges.clear();
+        pendingOverflow = false;
+        previousGeneration = retrievedGeneration;
+        retrievedGeneration = latestGeneration;
+        return SkillsFile.root(dir.toFile());
+    }
+
+    @Override
+    public synchronized String getVersion() {
+        return retrievedGeneration < 0 ? null : version(retrievedGeneration);
+    }
+
+    @Override
+    public synchronized List<String> getChangedFilesAfter(String version) {
+        if (retrievedGeneration >= 0 && version.equals(version(retrievedGeneration))) {
+            return List.of();
+        }
+        if (previousGeneration >= 0 && version.equals(version(previousGeneration)) && retrievedChanges != null) {
+            return retrievedChanges;
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String getLatestVersion() throws IOException {
+        drainEvents();
+        return version(latestGeneration);
+    }
+
+    /**
+     * The versions are valid only within the run, so they are not kept in the database, where they would
+     * replace the commit of the skills repository.
+     * @return false
+     */
+    @Override
+    public boolean isVersionPersistent() {
+        return false;
+    }
+
+    private String version(long generation) {
+        return versionPrefix + generation;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Cannot close the watch service of {}", dir, e);
+        }
+    }
+}
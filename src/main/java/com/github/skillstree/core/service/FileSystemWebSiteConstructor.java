@@ -0,0 +1,245 @@
+package com.github.skillstree.core.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Website constructor, which writes the JSON of every skills tree to a static directory, e.g. served by nginx
+ * or a CDN. The JSON of the tree {@code <treeId>} is written in a single pass to:
+ * <ul>
+ *     <li>{@code <treeId>.json};</li>
+ *     <li>{@code <treeId>.json.gz}, the gzip compressed variant;</li>
+ *     <li>{@code <treeId>.json.deflate}, the deflate compressed variant, if it is enabled;</li>
+ *     <li>{@code <treeId>.json.etag}, the strong ETag of the JSON, which is its SHA-256 hash.</li>
+ * </ul>
+ * The files are written to the temporary files in the same directory first and are renamed atomically,
+ * so the readers never see a half-written file. The ETag is renamed last, so it never refers to the content,
+ * which is not published yet.
+ */
+public class FileSystemWebSiteConstructor implements WebSiteConstructor {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemWebSiteConstructor.class);
+
+    private static final String DEFAULT_TREE_ID = "skills-tree";
+
+    private static final String JSON_EXTENSION = ".json";
+
+    private static final String GZIP_EXTENSION = ".json.gz";
+
+    private static final String DEFLATE_EXTENSION = ".json.deflate";
+
+    private static final String ETAG_EXTENSION = ".json.etag";
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private final Path outputDir;
+
+    private boolean deflate;
+
+    private int compressionLevel = Deflater.BEST_COMPRESSION;
+
+    /**
+     * Constructor.
+     * @param outputDir directory to write the files to, it is created if it doesn't exist
+     */
+    public FileSystemWebSiteConstructor(Path outputDir) {
+        this.outputDir = outputDir;
+        try {
+            Files.createDirectories(outputDir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot create specified directory " + outputDir, e);
+        }
+    }
+
+    /**
+     * Sets whether the deflate compressed variant is written along with the gzip one.
+     * @param deflate true to write the deflate variant, it is disabled by default
+     * @return this constructor
+     */
+    public FileSystemWebSiteConstructor setDeflate(boolean deflate) {
+        this.deflate = deflate;
+        return this;
+    }
+
+    /**
+     * Sets the level of the compression, the files are compressed once and served many times,
+     * so the best compression is used by default.
+     * @param compressionLevel level from 0 to 9, see {@link Deflater}
+     * @return this constructor
+     */
+    public FileSystemWebSiteConstructor setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level should be from 0 to 9");
+        }
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    /**
+     * Writes the JSON as the tree {@value #DEFAULT_TREE_ID}.
+     * @param skillsTreeJson skills tree in JSON string
+     */
+    @Override
+    public void updateSkillsTree(String skillsTreeJson) {
+        try {
+            updateSkillsTree(DEFAULT_TREE_ID, out -> out.write(skillsTreeJson.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void updateSkillsTree(JsonContent skillsTreeJson) throws IOException {
+        updateSkillsTree(DEFAULT_TREE_ID, skillsTreeJson);
+    }
+
+    @Override
+    public void updateSkillsTree(String treeId, JsonContent skillsTreeJson) throws IOException {
+        if (treeId.isEmpty() || treeId.contains("/") || treeId.contains("\\") || treeId.startsWith(".")) {
+            throw new IllegalArgumentException("Tree id should be a plain file name: " + treeId);
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+        }
+
+        // the files are renamed in the order of their creation: the compressed variants, the JSON, the ETag
+        List<Path[]> files = new ArrayList<>();
+        try {
+            Path gzip = tempFile(treeId + GZIP_EXTENSION, files);
+            Path deflated = deflate ? tempFile(treeId + DEFLATE_EXTENSION, files) : null;
+            Path json = tempFile(treeId + JSON_EXTENSION, files);
+
+            long size;
+            Deflater deflater = new Deflater(compressionLevel, false);
+            try (OutputStream jsonOut = Files.newOutputStream(json);
+                 OutputStream gzipOut = new GZIPOutputStream(Files.newOutputStream(gzip), BUFFER_SIZE) {
+                     {
+                         def.setLevel(compressionLevel);
+                     }
+                 };
+                 OutputStream deflateOut = deflated == null ? OutputStream.nullOutputStream() :
+                         new DeflaterOutputStream(Files.newOutputStream(deflated), deflater, BUFFER_SIZE);
+                 CountingTeeOutputStream out = new CountingTeeOutputStream(digest, jsonOut, gzipOut, deflateOut)) {
+                skillsTreeJson.writeTo(out);
+                out.flush();
+                size = out.count;
+            } finally {
+                deflater.end();
+            }
+
+            String etag = "\"" + toHex(digest.digest()) + "\"";
+            Path etagFile = tempFile(treeId + ETAG_EXTENSION, files);
+            Files.writeString(etagFile, etag);
+
+            for (Path[] file : files) {
+                Files.move(file[0], file[1], StandardCopyOption.ATOMIC_MOVE);
+            }
+            logger.info("Skills tree {} is published to {}: {} bytes, ETag {}", treeId, outputDir, size, etag);
+
+        } finally {
+            for (Path[] file : files) {
+                Files.deleteIfExists(file[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns the published JSON file of the tree.
+     * @param treeId name of the skills tree's root directory
+     * @return path of the JSON file
+     */
+    public Path getJsonFile(String treeId) {
+        return outputDir.resolve(treeId + JSON_EXTENSION);
+    }
+
+    /**
+     * Creates the temporary file for the target file and registers the pair of them.
+     */
+    private Path tempFile(String targetName, List<Path[]> files) throws IOException {
+        Path temp = Files.createTempFile(outputDir, "." + targetName + ".", ".tmp");
+        files.add(new Path[]{temp, outputDir.resolve(targetName)});
+        try {
+            // the temporary files are readable only by the owner, while the files are served by another user
+            Files.setPosixFilePermissions(temp, FILE_PERMISSIONS);
+        } catch (UnsupportedOperationException e) {
+            logger.debug("POSIX file permissions are not supported by {}", outputDir);
+        }
+        return temp;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the same bytes to all the streams and to the digest, counts the bytes.
+     */
+    private static class CountingTeeOutputStream extends OutputStream {
+
+        private final MessageDigest digest;
+
+        private final OutputStream[] streams;
+
+        private long count;
+
+        CountingTeeOutputStream(MessageDigest digest, OutputStream... streams) {
+            this.digest = digest;
+            this.streams = streams;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            digest.update((byte) b);
+            for (OutputStream stream : streams) {
+                stream.write(b);
+            }
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            digest.update(b, off, len);
+            for (OutputStream stream : streams) {
+                stream.write(b, off, len);
+            }
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            for (OutputStream stream : streams) {
+                stream.flush();
+            }
+        }
+    }
+}
@@ -2,76 +2,244 @@ package com.github.skillstree.core.service;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Extractor of skills tree files, works with the skills tree repository.
+ * The repository is kept open between the calls, it should be closed when it is not needed anymore.
  */
-public class GitExtractor {
+public class GitExtractor implements AutoCloseable {
 
     private static final Logger logger = LoggerFactory.getLogger(GitExtractor.class);
 
+    private static final String DEFAULT_REMOTE_URI = "https://github.com/ilyavy/skills.git";
+
+    private static final String DEFAULT_BRANCH = "aws";
+
+    private static final String REMOTE = Constants.DEFAULT_REMOTE_NAME;
+
+    private static final int TIMEOUT_SECONDS = 10;
+
     private final File repoDir;
 
+    private final String remoteUri;
+
+    private final String branch;
+
+    private boolean workingCopy = true;
+
+    private Git git;
+
     /**
-     * Constructor.
+     * Constructor. The repository's URI and branch can be provided with SKILLS_REPO_URI and SKILLS_REPO_BRANCH
+     * environment variables.
      * @param repoDir directory with skills tree files (can be empty, then the files will be copied there from
      *                the repository)
      *
      */
     public GitExtractor(File repoDir) {
+        this(repoDir, Objects.requireNonNullElse(System.getenv("SKILLS_REPO_URI"), DEFAULT_REMOTE_URI),
+                Objects.requireNonNullElse(System.getenv("SKILLS_REPO_BRANCH"), DEFAULT_BRANCH));
+    }
+
+    /**
+     * Constructor.
+     * @param repoDir   directory with skills tree files (can be empty, then the files will be copied there from
+     *                  the repository)
+     * @param remoteUri URI of the skills repository, e.g. {@code file://} URI of a local repository
+     * @param branch    branch of the skills repository
+     */
+    public GitExtractor(File repoDir, String remoteUri, String branch) {
         this.repoDir = repoDir;
+        this.remoteUri = remoteUri;
+        this.branch = branch;
         if (!repoDir.exists()) {
             if (!repoDir.mkdir()) {
                 throw new IllegalArgumentException("Cannot create specified directory " + repoDir);
             }
         }
-        logger.info("Repository directory: {}", repoDir);
+        logger.info("Repository directory: {}, remote: {}, branch: {}", repoDir, remoteUri, branch);
     }
 
     /**
-     * Retrieves directory with skills from the repository.
+     * Sets whether the skills files are checked out to the working copy. Without the working copy only the git
+     * objects are fetched and the local branch is moved to the fetched commit, the files should be read from
+     * the commit then (see {@link #getRepository()}).
+     * @param workingCopy true to check out the files, it is the default
+     * @return this extractor
+     */
+    public synchronized GitExtractor setWorkingCopy(boolean workingCopy) {
+        this.workingCopy = workingCopy;
+        return this;
+    }
+
+    /**
+     * Retrieves directory with skills from the repository. Only the configured branch is fetched
+     * and the working copy is fast-forwarded to it. The working copy is restored from the local objects if
+     * it cannot be fast-forwarded, the repository is cloned again only if it cannot be opened or its objects
+     * are broken.
      * @return directory with skills files
      * @throws GitAPIException if a problem with the repository occured
      */
-    public File getDirWithSkills() throws GitAPIException {
-        try {
-            Git.open(repoDir).pull().call();
-        } catch (IOException e) {
-            logger.info("Cannot open the repository: {}", e.getMessage());
+    public synchronized File getDirWithSkills() throws GitAPIException {
+        if (git == null) {
+            try {
+                git = Git.open(repoDir);
+            } catch (IOException e) {
+                logger.info("Cannot open the repository: {}", e.getMessage());
+                git = cloneRepository();
+                return repoDir;
+            }
+        }
 
-            if (repoDir.exists()) {
-                if (!deleteDirectory(repoDir)) {
-                    logger.error("Cannot delete repository's directory {}", repoDir);
-                }
+        ObjectId fetchedCommit = fetch();
+        if (!workingCopy) {
+            try {
+                updateBranch(fetchedCommit);
+            } catch (IOException | JGitInternalException e) {
+                logger.error("Cannot update the local branch, the repository is cloned again", e);
+                close();
+                git = cloneRepository();
             }
+            return repoDir;
+        }
+        try {
+            fastForward(fetchedCommit);
+
+        } catch (IOException | GitAPIException | JGitInternalException e) {
+            logger.warn("Cannot fast-forward the working copy, it is restored from the repository", e);
+            try {
+                restoreWorkingCopy(fetchedCommit);
 
-            Git.cloneRepository()
-                    .setURI("https://github.com/ilyavy/skills.git") // TODO: config
-                    .setDirectory(repoDir)
-                    .setBranch("aws") // TODO: config
-                    .setTimeout(10) // TODO: config
-                    .call();
+            } catch (IOException | GitAPIException | JGitInternalException restoreException) {
+                logger.error("Cannot restore the working copy, the repository is cloned again", restoreException);
+                close();
+                git = cloneRepository();
+            }
         }
         return repoDir;
     }
 
+    private Git cloneRepository() throws GitAPIException {
+        if (repoDir.exists()) {
+            if (!deleteDirectory(repoDir)) {
+                logger.error("Cannot delete repository's directory {}", repoDir);
+            }
+        }
+
+        return Git.cloneRepository()
+                .setURI(remoteUri)
+                .setDirectory(repoDir)
+                .setRemote(REMOTE)
+                .setBranch(branch)
+                .setCloneAllBranches(false)
+                .setBranchesToClone(List.of(Constants.R_HEADS + branch))
+                .setNoCheckout(!workingCopy)
+                .setTimeout(TIMEOUT_SECONDS)
+                .call();
+    }
+
+    private ObjectId fetch() throws GitAPIException {
+        String remoteBranch = Constants.R_REMOTES + REMOTE + "/" + branch;
+        git.fetch()
+                .setRemote(REMOTE)
+                .setRefSpecs(new RefSpec("+" + Constants.R_HEADS + branch + ":" + remoteBranch))
+                .setTagOpt(TagOpt.NO_TAGS)
+                .setTimeout(TIMEOUT_SECONDS)
+                .call();
+        try {
+            ObjectId commit = git.getRepository().resolve(remoteBranch);
+            if (commit == null) {
+                throw new RefNotFoundException("Branch is not found in the remote repository: " + branch);
+            }
+            return commit;
+
+        } catch (IOException e) {
+            throw new JGitInternalException("Cannot resolve the fetched branch " + branch, e);
+        }
+    }
+
+    private void fastForward(ObjectId commit) throws IOException, GitAPIException {
+        ObjectId head = git.getRepository().resolve(Constants.HEAD);
+        if (commit.equals(head)) {
+            return;
+        }
+
+        MergeResult result = git.merge()
+                .include(commit)
+                .setFastForward(MergeCommand.FastForwardMode.FF_ONLY)
+                .call();
+        if (!result.getMergeStatus().isSuccessful()) {
+            throw new JGitInternalException("Cannot fast-forward to " + commit.getName() + ": " +
+                    result.getMergeStatus());
+        }
+        logger.info("Working copy is fast-forwarded to {}", commit.getName());
+    }
+
+    private void updateBranch(ObjectId commit) throws IOException {
+        Repository repository = git.getRepository();
+        if (commit.equals(repository.resolve(Constants.HEAD))) {
+            return;
+        }
+
+        RefUpdate update = repository.updateRef(Constants.R_HEADS + branch);
+        update.setNewObjectId(commit);
+        update.setForceUpdate(true);
+        RefUpdate.Result result = update.update();
+        switch (result) {
+            case NEW:
+            case FORCED:
+            case FAST_FORWARD:
+            case NO_CHANGE:
+                logger.info("Branch {} is moved to {}", branch, commit.getName());
+                break;
+            default:
+                throw new JGitInternalException("Cannot move branch " + branch + " to " + commit.getName() + ": " +
+                        result);
+        }
+    }
+
+    private void restoreWorkingCopy(ObjectId commit) throws IOException, GitAPIException {
+        // the index is rebuilt from the commit by the hard reset, so a broken one can be dropped
+        File index = new File(git.getRepository().getDirectory(), "index");
+        try {
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commit.getName()).call();
+        } catch (JGitInternalException e) {
+            Files.deleteIfExists(index.toPath());
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commit.getName()).call();
+        }
+        git.clean().setCleanDirectories(true).setForce(true).call();
+        logger.info("Working copy is restored at {}", commit.getName());
+    }
+
     private boolean deleteDirectory(File directoryToBeDeleted) {
         File[] files = directoryToBeDeleted.listFiles();
         if (files != null) {
@@ -82,13 +250,61 @@ public class GitExtractor {
         return directoryToBeDeleted.delete();
     }
 
+    private Repository repository() throws IOException {
+        if (git == null) {
+            git = Git.open(repoDir);
+        }
+        return git.getRepository();
+    }
+
+    /**
+     * Returns the repository, e.g. to read the skills files straight from its objects.
+     * @return repository, it is closed by {@link #close()}
+     * @throws IOException if the repository cannot be opened
+     */
+    public synchronized Repository getRepository() throws IOException {
+        return repository();
+    }
+
+    /**
+     * Closes the repository.
+     */
+    @Override
+    public synchronized void close() {
+        if (git != null) {
+            git.close();
+            git = null;
+        }
+    }
+
+    /**
+     * Retrieves the id of the branch's commit in the remote repository like {@code git ls-remote} does. Only
+     * the refs are requested, the objects are not fetched and the local repository is not touched.
+     * @return commit ID or null if there is no such branch in the remote repository
+     * @throws GitAPIException if a problem with the remote repository occurred
+     */
+    public String getRemoteCommitId() throws GitAPIException {
+        Collection<Ref> refs = Git.lsRemoteRepository()
+                .setRemote(remoteUri)
+                .setHeads(true)
+                .setTimeout(TIMEOUT_SECONDS)
+                .call();
+        String refName = Constants.R_HEADS + branch;
+        for (Ref ref : refs) {
+            if (ref.getName().equals(refName)) {
+                return ref.getObjectId().getName();
+            }
+        }
+        return null;
+    }
+
     /**
      * Retrieves the last commit's id.
      * @return commit ID
      */
-    public String getLastCommitId() {
-        try (Repository repository = Git.open(repoDir).getRepository()) {
-            ObjectId head = repository.resolve(Constants.HEAD);
+    public synchronized String getLastCommitId() {
+        try {
+            ObjectId head = repository().resolve(Constants.HEAD);
             return head.getName();
 
         } catch (Exception e) {
@@ -98,32 +314,44 @@ public class GitExtractor {
     }
 
     /**
-     * Retrieves the list of changed skills files after the specified commit ID.
+     * Retrieves the list of changed skills files after the specified commit ID. Both old and new paths are
+     * reported for the renamed files, the old path is reported for the deleted ones.
      * @param commitId commit ID to search after
-     * @return list of commit IDs
+     * @return list of changed files' paths relative to the repository root, or null if it cannot be obtained
      */
-    public List<String> getListOfChangedFilesAfter(String commitId) {
+    public synchronized List<String> getListOfChangedFilesAfter(String commitId) {
         List<String> result = new ArrayList<>();
 
-        try (Repository repository = Git.open(repoDir).getRepository()) {
-            RevWalk rw = new RevWalk(repository);
+        try (RevWalk rw = new RevWalk(repository());
+             DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            Repository repository = repository();
             ObjectId head = repository.resolve(Constants.HEAD);
             RevCommit commit = rw.parseCommit(head);
             RevCommit parent = rw.parseCommit(ObjectId.fromString(commitId));
 
-            DiffFormatter df = new DiffFormatter(DisabledOutputStream.INSTANCE);
             df.setRepository(repository);
             df.setDiffComparator(RawTextComparator.DEFAULT);
             df.setDetectRenames(true);
 
             List<DiffEntry> diffs = df.scan(parent.getTree(), commit.getTree());
             for (DiffEntry diff : diffs) {
-                result.add(diff.getNewPath());
+                switch (diff.getChangeType()) {
+                    case DELETE:
+                        result.add(diff.getOldPath());
+                        break;
+                    case RENAME:
+                        result.add(diff.getOldPath());
+                        result.add(diff.getNewPath());
+                        break;
+                    default:
+                        result.add(diff.getNewPath());
+                }
                 logger.info("Diffs found: {}", MessageFormat.format("{0} {1} {2}",
                         diff.getChangeType().name(), diff.getNewMode().getBits(), diff.getNewPath()));
             }
         } catch (Exception e) {
             logger.error("Cannot obtain list of changed files after commit {}", commitId, e);
+            return null;
         }
 
         return result;
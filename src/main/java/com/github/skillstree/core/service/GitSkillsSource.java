@@ -0,0 +1,71 @@
+package com.github.skillstree.core.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import com.github.skillstree.core.transformer.SkillsFile;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * {@link SkillsSource} backed by the skills git repository, the versions are the ids of the commits.
+ */
+public class GitSkillsSource implements SkillsSource {
+
+    private final GitExtractor gitExtractor;
+
+    private boolean workingCopy = true;
+
+    /**
+     * Constructor.
+     * @param gitExtractor extractor of the skills repository
+     */
+    public GitSkillsSource(GitExtractor gitExtractor) {
+        this.gitExtractor = gitExtractor;
+    }
+
+    /**
+     * Sets whether the skills files are checked out to the working copy. Without the working copy the files
+     * are read straight from the objects of the fetched commit.
+     * @param workingCopy true to check out the files, it is the default
+     * @return this source
+     */
+    public synchronized GitSkillsSource setWorkingCopy(boolean workingCopy) {
+        this.workingCopy = workingCopy;
+        gitExtractor.setWorkingCopy(workingCopy);
+        return this;
+    }
+
+    @Override
+    public synchronized SkillsFile retrieve() throws GitAPIException, IOException {
+        File skillsDir = gitExtractor.getDirWithSkills();
+        if (workingCopy) {
+            return SkillsFile.root(skillsDir);
+        }
+        String commitId = gitExtractor.getLastCommitId();
+        Objects.requireNonNull(commitId, "The last commit of the skills repository is unknown");
+        return SkillsFile.root(gitExtractor.getRepository(), ObjectId.fromString(commitId));
+    }
+
+    @Override
+    public String getVersion() {
+        return gitExtractor.getLastCommitId();
+    }
+
+    @Override
+    public List<String> getChangedFilesAfter(String version) {
+        return gitExtractor.getListOfChangedFilesAfter(version);
+    }
+
+    @Override
+    public String getLatestVersion() throws GitAPIException {
+        return gitExtractor.getRemoteCommitId();
+    }
+
+    @Override
+    public void close() {
+        gitExtractor.close();
+    }
+}
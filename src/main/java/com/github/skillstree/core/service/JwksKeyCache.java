@@ -0,0 +1,245 @@
+package com.github.skillstree.core.service;
+
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.RateLimitReachedException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the token verifiers built from the issuers' JSON Web Keys, keyed by the issuer and the key id.
+ * <ul>
+ *     <li>all the keys of an issuer are fetched at once and the number of cached keys is bounded;</li>
+ *     <li>the keys are refreshed in background when they get older than the refresh-ahead age, and are
+ *     fetched synchronously when they are older than the TTL;</li>
+ *     <li>the keys of an issuer are fetched not more often than once per the minimal fetch interval,
+ *     so the tokens with unknown key ids cannot flood the issuer;</li>
+ *     <li>the expired keys are used while the issuer is not available.</li>
+ * </ul>
+ */
+public class JwksKeyCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwksKeyCache.class);
+
+    private static final int DEFAULT_MAX_SIZE = 64;
+
+    private static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+
+    private static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofMinutes(8);
+
+    private static final Duration DEFAULT_MIN_FETCH_INTERVAL = Duration.ofSeconds(10);
+
+    private final JwksKeySource keySource;
+
+    private final long ttlMillis;
+
+    private final long refreshAheadMillis;
+
+    private final long minFetchIntervalMillis;
+
+    private final Clock clock;
+
+    private final Executor refreshExecutor;
+
+    private final Map<String, Entry> entries;
+
+    private final Map<String, IssuerState> issuers;
+
+    public JwksKeyCache(JwksKeySource keySource) {
+        this(keySource, DEFAULT_MAX_SIZE, DEFAULT_TTL, DEFAULT_REFRESH_AHEAD, DEFAULT_MIN_FETCH_INTERVAL,
+                Clock.systemUTC(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     * @param keySource        source of the keys
+     * @param maxSize          maximal number of the cached keys
+     * @param ttl              time after which the keys are fetched again before the use
+     * @param refreshAhead     time after which the keys are refreshed in background
+     * @param minFetchInterval minimal interval between two fetches of the same issuer's keys
+     * @param clock            clock
+     * @param refreshExecutor  executor of the background refreshes
+     */
+    public JwksKeyCache(JwksKeySource keySource, int maxSize, Duration ttl, Duration refreshAhead,
+                        Duration minFetchInterval, Clock clock, Executor refreshExecutor) {
+        if (maxSize <= 0 || refreshAhead.compareTo(ttl) > 0) {
+            throw new IllegalArgumentException("Max size should be positive and refresh-ahead should not exceed TTL");
+        }
+        this.keySource = keySource;
+        this.ttlMillis = ttl.toMillis();
+        this.refreshAheadMillis = refreshAhead.toMillis();
+        this.minFetchIntervalMillis = minFetchInterval.toMillis();
+        this.clock = clock;
+        this.refreshExecutor = refreshExecutor;
+        this.entries = boundedMap(maxSize);
+        this.issuers = boundedMap(maxSize);
+    }
+
+    /**
+     * Returns the verifier of the tokens signed by the specified key of the issuer.
+     * @param issuer issuer of the token
+     * @param keyId  id of the key the token is signed with
+     * @return token verifier
+     * @throws JwkException if there is no such key or the keys cannot be retrieved
+     */
+    public JWTVerifier getVerifier(String issuer, String keyId) throws JwkException {
+        String cacheKey = cacheKey(issuer, keyId);
+        Entry entry = getEntry(cacheKey);
+        if (entry != null) {
+            long age = clock.millis() - entry.loadedAt;
+            if (age < refreshAheadMillis) {
+                return entry.verifier;
+            }
+            if (age < ttlMillis) {
+                refreshAsync(issuer);
+                return entry.verifier;
+            }
+        }
+
+        IssuerState state = issuerState(issuer);
+        synchronized (state) {
+            // the keys might have been fetched while waiting for the lock
+            Entry current = getEntry(cacheKey);
+            if (current != null && clock.millis() - current.loadedAt < ttlMillis) {
+                return current.verifier;
+            }
+            try {
+                fetchKeys(issuer, state);
+            } catch (JwkException e) {
+                if (current != null) {
+                    logger.warn("Cannot fetch the keys of {}, the expired key {} is used", issuer, keyId, e);
+                    return current.verifier;
+                }
+                throw e;
+            }
+        }
+
+        // the fetch succeeded, so a key missing from it is revoked and is not fallen back to
+        entry = getEntry(cacheKey);
+        if (entry == null) {
+            throw new SigningKeyNotFoundException("No key found for the issuer " + issuer + " with kid " + keyId,
+                    null);
+        }
+        return entry.verifier;
+    }
+
+    private void refreshAsync(String issuer) {
+        IssuerState state = issuerState(issuer);
+        if (!state.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                synchronized (state) {
+                    fetchKeys(issuer, state);
+                }
+            } catch (JwkException e) {
+                logger.warn("Cannot refresh the keys of {}", issuer, e);
+            } finally {
+                state.refreshing.set(false);
+            }
+        }, refreshExecutor);
+    }
+
+    private void fetchKeys(String issuer, IssuerState state) throws JwkException {
+        long now = clock.millis();
+        long availableIn = state.lastFetch + minFetchIntervalMillis - now;
+        if (state.lastFetch != 0 && availableIn > 0) {
+            throw new RateLimitReachedException(availableIn);
+        }
+        state.lastFetch = now;
+
+        List<Jwk> keys = keySource.getKeys(issuer);
+        logger.info("{} keys of {} are fetched", keys.size(), issuer);
+
+        Map<String, Entry> fetched = new LinkedHashMap<>();
+        for (Jwk jwk : keys) {
+            if (!"RSA".equals(jwk.getType())) {
+                continue;
+            }
+            Entry entry = new Entry(issuer,
+                    JWT.require(Algorithm.RSA256((RSAPublicKey) jwk.getPublicKey(), null)).build(), now);
+            fetched.put(cacheKey(issuer, jwk.getId()), entry);
+        }
+        if (fetched.size() == 1) {
+            // the tokens of the issuer with a single key may have no key id
+            fetched.put(cacheKey(issuer, null), fetched.values().iterator().next());
+        }
+        replaceEntries(issuer, fetched);
+    }
+
+    /**
+     * Replaces the keys of the issuer with the fetched ones, the keys the issuer doesn't publish anymore
+     * (including the alias of the former single key) are dropped, since they might be revoked.
+     */
+    private void replaceEntries(String issuer, Map<String, Entry> fetched) {
+        synchronized (entries) {
+            entries.entrySet().removeIf(e -> Objects.equals(e.getValue().issuer, issuer) &&
+                    !fetched.containsKey(e.getKey()));
+            entries.putAll(fetched);
+        }
+    }
+
+    private Entry getEntry(String cacheKey) {
+        synchronized (entries) {
+            return entries.get(cacheKey);
+        }
+    }
+
+    private IssuerState issuerState(String issuer) {
+        synchronized (issuers) {
+            return issuers.computeIfAbsent(String.valueOf(issuer), i -> new IssuerState());
+        }
+    }
+
+    private static String cacheKey(String issuer, String keyId) {
+        return issuer + '#' + keyId;
+    }
+
+    private static <V> Map<String, V> boundedMap(int maxSize) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    private static class Entry {
+
+        private final String issuer;
+
+        private final JWTVerifier verifier;
+
+        private final long loadedAt;
+
+        Entry(String issuer, JWTVerifier verifier, long loadedAt) {
+            this.issuer = issuer;
+            this.verifier = verifier;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static class IssuerState {
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private long lastFetch;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.skillstree.core.service;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.UrlJwkProvider;
+
+/**
+ * Source of JSON Web Keys, which are used to verify the tokens of an issuer.
+ */
+@FunctionalInterface
+public interface JwksKeySource {
+
+    /**
+     * Retrieves all the keys published by the issuer.
+     * @param issuer issuer of the token
+     * @return list of the issuer's keys
+     * @throws JwkException if the keys cannot be retrieved
+     */
+    List<Jwk> getKeys(String issuer) throws JwkException;
+
+    /**
+     * Creates the key source, which fetches the keys from the issuer's {@code /.well-known/jwks.json}. Any issuer
+     * is requested, so the issuers should be checked before, see {@link Authorizer#setAllowedIssuers(Collection)}.
+     * @return key source
+     */
+    static JwksKeySource remote() {
+        return issuer -> new UrlJwkProvider(issuer).getAll();
+    }
+
+    /**
+     * Creates the key source, which fetches the keys from the issuer's {@code /.well-known/jwks.json} only for
+     * the allowed issuers, no request is made for the others.
+     * @param allowedIssuers issuers, e.g. {@code https://example.auth0.com/}
+     * @return key source
+     */
+    static JwksKeySource remote(Collection<String> allowedIssuers) {
+        Set<String> allowed = Set.copyOf(allowedIssuers);
+        return issuer -> {
+            if (issuer == null || !allowed.contains(issuer)) {
+                throw new JwkException("Issuer is not allowed: " + issuer);
+            }
+            return new UrlJwkProvider(issuer).getAll();
+        };
+    }
+
+    /**
+     * Creates the key source, which reads the keys from the specified JWKS document for any issuer,
+     * e.g. from a local file.
+     * @param jwksUrl url of the JWKS document
+     * @return key source
+     */
+    static JwksKeySource fromUrl(URL jwksUrl) {
+        return issuer -> new UrlJwkProvider(jwksUrl).getAll();
+    }
+}
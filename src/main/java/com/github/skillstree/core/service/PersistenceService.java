@@ -1,19 +1,75 @@
 package com.github.skillstree.core.service;
 
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
+import javax.sql.DataSource;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.skillstree.core.metrics.MetricsSink;
 import com.github.skillstree.core.model.SkillsIdMapping;
 import com.github.skillstree.core.model.UserSkill;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * The database access layer, which works with skills tree entities.
  */
 public class PersistenceService {
 
+    private static final Logger logger = LoggerFactory.getLogger(PersistenceService.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final int FETCH_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String QUERY_TIMER = "skills.db.query";
+
+    private static final String STATEMENTS_COUNTER = "skills.db.statements";
+
+    private static final String UPSERT_SKILL_SQL = "INSERT INTO skills (id, code) VALUES (?, ?) " +
+            "ON CONFLICT (code) DO UPDATE SET id = EXCLUDED.id WHERE skills.id IS DISTINCT FROM EXCLUDED.id";
+
+    private static final String UPSERT_USER_SKILL_SQL = "INSERT INTO user_skills (userId, skillId, level) " +
+            "VALUES (?, ?, ?) ON CONFLICT (userid, skillid) DO UPDATE SET level = EXCLUDED.level";
+
+    private static final String EXPORT_USER_SKILLS_SQL = "SELECT us.userId, us.skillId, s.code, us.level " +
+            "FROM user_skills us LEFT JOIN skills s ON s.id = us.skillId";
+
+    private static final String[] EXPORT_COLUMNS = {"userId", "skillId", "code", "level"};
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
     private final JdbcTemplate jdbcTemplate;
 
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    private UserSkillsCache userSkillsCache;
+
+    private UserSkillsWriteBehind userSkillsWriteBehind;
+
+    private MetricsSink metricsSink = MetricsSink.noop();
+
     /**
      * Create an instance of the service. The following environment variables should be provided:
      * <ul>
@@ -25,6 +81,69 @@ public class PersistenceService {
      * </ul>
      */
     public PersistenceService() {
+        this(createDataSource());
+    }
+
+    /**
+     * Create an instance of the service working with the specified data source.
+     * @param dataSource data source
+     */
+    public PersistenceService(DataSource dataSource) {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Sets the cache of the users' skills, which is used by {@link #getUserSkills(String)} and is invalidated
+     * by {@link #updateUserSkills(Map)}.
+     * @param userSkillsCache cache, or null to read the users' skills from the database every time
+     * @return this service
+     */
+    public PersistenceService setUserSkillsCache(UserSkillsCache userSkillsCache) {
+        this.userSkillsCache = userSkillsCache;
+        return this;
+    }
+
+    /**
+     * Enables the write-behind mode of {@link #updateUserSkills(Map)}: the updates are buffered, coalesced and
+     * written in the background. {@link #getUserSkills(String)} sees the buffered updates.
+     * @param userSkillsWriteBehind write-behind buffer, it should be closed by the owner to write the rest of
+     *                              the updates; it can be set once
+     * @return this service
+     */
+    public PersistenceService setUserSkillsWriteBehind(UserSkillsWriteBehind userSkillsWriteBehind) {
+        if (this.userSkillsWriteBehind != null) {
+            throw new IllegalStateException("Write-behind mode is already enabled");
+        }
+        userSkillsWriteBehind.start(this::writeUserSkills);
+        this.userSkillsWriteBehind = userSkillsWriteBehind;
+        return this;
+    }
+
+    /**
+     * Sets the sink of the queries' latencies ({@value #QUERY_TIMER} timer) and the numbers of the executed
+     * statements ({@value #STATEMENTS_COUNTER} counter), both are tagged with the {@code query}.
+     * @param metricsSink metrics sink
+     * @return this service
+     */
+    public PersistenceService setMetricsSink(MetricsSink metricsSink) {
+        this.metricsSink = Objects.requireNonNull(metricsSink);
+        return this;
+    }
+
+    private <T> T timed(String query, int statements, Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            metricsSink.recordTime(QUERY_TIMER, System.nanoTime() - start, "query", query);
+            metricsSink.count(STATEMENTS_COUNTER, statements, "query", query);
+        }
+    }
+
+    private static DataSource createDataSource() {
         String dbName = Objects.requireNonNullElse(System.getenv("RDB_DB_NAME"), "se_skills_tree");
         String userName = Objects.requireNonNullElse(System.getenv("RDB_USERNAME"), "postgres");
         String password = Objects.requireNonNullElse(System.getenv("RDB_PASSWORD"), "postgres");
@@ -38,7 +157,7 @@ public class PersistenceService {
         dataSourceBuilder.username(userName);
         dataSourceBuilder.password(password);
 
-        jdbcTemplate = new JdbcTemplate(dataSourceBuilder.build());
+        return dataSourceBuilder.build();
     }
 
     /**
@@ -62,7 +181,8 @@ public class PersistenceService {
      */
     public SkillsIdMapping getByCode(String code) {
         try {
-            return jdbcTemplate.queryForObject("SELECT * FROM skills WHERE code=?", SkillsIdMapping.class, code);
+            return timed("getByCode", 1, () ->
+                    jdbcTemplate.queryForObject("SELECT * FROM skills WHERE code=?", SkillsIdMapping.class, code));
         } catch (Exception e) {
             return null;
         }
@@ -73,13 +193,13 @@ public class PersistenceService {
      * @return skills id mappings as {@link Map} with code as a key and its id as a value.
      */
     public Map<String, UUID> getAllMappings() {
-        return jdbcTemplate.query("SELECT id, code FROM skills", rs -> {
+        return timed("getAllMappings", 1, () -> jdbcTemplate.query("SELECT id, code FROM skills", rs -> {
             Map<String, UUID> result = new HashMap<>();
             while (rs.next()) {
                 result.put(rs.getString("code"), rs.getObject("id", UUID.class));
             }
             return result;
-        });
+        }));
     }
 
     /**
@@ -87,19 +207,37 @@ public class PersistenceService {
      * @param skillsIdMapping entity to save
      */
     public void save(SkillsIdMapping skillsIdMapping) {
-        try {
-            SkillsIdMapping simKnown = jdbcTemplate.queryForObject(
-                    "SELECT * FROM skills WHERE code=?", new Object[]{skillsIdMapping.getCode()}, (rs, rowNum) ->
-                            new SkillsIdMapping(rs.getObject("id", UUID.class), rs.getString("code")));
-            if (!simKnown.getId().equals(skillsIdMapping.getId())) {
-                jdbcTemplate.update("UPDATE skills SET id=? WHERE code=?",
-                        skillsIdMapping.getId(), skillsIdMapping.getCode());
-            }
+        timed("saveMapping", 1, () ->
+                jdbcTemplate.update(UPSERT_SKILL_SQL, skillsIdMapping.getId(), skillsIdMapping.getCode()));
+    }
 
-        } catch (Exception e) {
-            jdbcTemplate.update("INSERT INTO skills (id, code) VALUES(?,?)",
-                    skillsIdMapping.getId(), skillsIdMapping.getCode());
+    /**
+     * Saves {@link SkillsIdMapping} entities in batches within a single transaction.
+     * The rows, which already have the same id, are not updated.
+     * <p>
+     * The last commit isn't saved in the same transaction. The trees are persisted one by one, so a commit
+     * saved together with one tree would mark the trees, which aren't persisted yet, as updated. The last
+     * commit is saved by {@link #save(String)} once every tree is persisted, a failure in between leaves
+     * the previous commit, so the next update repeats the changes and the upserts of the saved mappings
+     * don't change anything.
+     * @param skillsIdMappings entities to save
+     */
+    public void saveAll(Collection<SkillsIdMapping> skillsIdMappings) {
+        transactionTemplate.execute(status -> {
+            batchUpsert(skillsIdMappings);
+            return null;
+        });
+    }
+
+    private void batchUpsert(Collection<SkillsIdMapping> skillsIdMappings) {
+        if (skillsIdMappings.isEmpty()) {
+            return;
         }
+        timed("saveMappings", skillsIdMappings.size(), () ->
+                jdbcTemplate.batchUpdate(UPSERT_SKILL_SQL, skillsIdMappings, BATCH_SIZE, (ps, mapping) -> {
+                    ps.setObject(1, mapping.getId());
+                    ps.setString(2, mapping.getCode());
+                }));
     }
 
     /**
@@ -107,12 +245,11 @@ public class PersistenceService {
      * @param lastCommit the id of last commit made in skills repository
      */
     public void save(String lastCommit) {
-        String lastKnownCommit = jdbcTemplate.query("SELECT last_commit FROM last_commit LIMIT 1",
-                rs -> rs.next() ? rs.getString(1) : null);
-        if (lastKnownCommit == null) {
-            jdbcTemplate.update("INSERT INTO last_commit (last_commit) VALUES(?)", lastCommit);
-        } else {
-            jdbcTemplate.update("UPDATE last_commit SET last_commit=?", lastCommit);
+        int updated = timed("updateLastCommit", 1, () ->
+                jdbcTemplate.update("UPDATE last_commit SET last_commit=?", lastCommit));
+        if (updated == 0) {
+            timed("insertLastCommit", 1, () ->
+                    jdbcTemplate.update("INSERT INTO last_commit (last_commit) VALUES(?)", lastCommit));
         }
     }
 
@@ -121,8 +258,8 @@ public class PersistenceService {
      * @return id of the commit
      */
     public String getLastCommit() {
-        return jdbcTemplate.query("SELECT last_commit FROM last_commit LIMIT 1",
-                rs -> rs.next() ? rs.getString(1) : null);
+        return timed("getLastCommit", 1, () -> jdbcTemplate.query("SELECT last_commit FROM last_commit LIMIT 1",
+                rs -> rs.next() ? rs.getString(1) : null));
     }
 
     /**
@@ -131,7 +268,17 @@ public class PersistenceService {
      * @return list of obtained by the user skills
      */
     public List<UserSkill> getUserSkills(String userId) {
-        return jdbcTemplate.query("SELECT skillId, level FROM user_skills WHERE userId=?", new Object[]{userId},
+        // the buffered updates are taken first, so the ones written meanwhile are read from the database
+        Map<UUID, Integer> pendingLevels = userSkillsWriteBehind == null ? Map.of() :
+                userSkillsWriteBehind.getPending(userId);
+        List<UserSkill> userSkills = userSkillsCache != null ?
+                userSkillsCache.get(userId, this::queryUserSkills) : queryUserSkills(userId);
+        return UserSkillsWriteBehind.apply(userSkills, pendingLevels);
+    }
+
+    private List<UserSkill> queryUserSkills(String userId) {
+        return timed("getUserSkills", 1, () -> jdbcTemplate.query(
+                "SELECT skillId, level FROM user_skills WHERE userId=?", new Object[]{userId},
                 rs -> {
                     List<UserSkill> userSkills = new ArrayList<>();
                     while (rs.next()) {
@@ -140,26 +287,287 @@ public class PersistenceService {
                         userSkills.add(userSkill);
                     }
                     return userSkills;
+                }));
+    }
+
+    /**
+     * Retrieves the lists of obtained by the users skills in a single query, the cached users are not queried.
+     * @param userIds user IDs
+     * @return lists of obtained by the users skills by user ID, in the order of the IDs
+     */
+    public Map<String, List<UserSkill>> getUserSkills(Collection<String> userIds) {
+        Set<String> distinctUserIds = new LinkedHashSet<>(userIds);
+        Map<String, Map<UUID, Integer>> pendingLevels = userSkillsWriteBehind == null ? Map.of() :
+                userSkillsWriteBehind.getPending(distinctUserIds);
+        Map<String, List<UserSkill>> usersSkills = userSkillsCache != null ?
+                userSkillsCache.getAll(distinctUserIds, this::queryUsersSkills) : queryUsersSkills(distinctUserIds);
+
+        Map<String, List<UserSkill>> result = new LinkedHashMap<>();
+        for (String userId : distinctUserIds) {
+            List<UserSkill> userSkills = usersSkills.getOrDefault(userId, new ArrayList<>());
+            result.put(userId, UserSkillsWriteBehind.apply(userSkills, pendingLevels.getOrDefault(userId, Map.of())));
+        }
+        return result;
+    }
+
+    /**
+     * Streams the obtained by the users skills to the consumer in a single query. The rows are fetched by
+     * portions and are not collected, so it suits the reports over many users. The cache is not used.
+     * @param userIds  user IDs
+     * @param consumer consumer of the user ID and the user's skill, it is called within the read-only
+     *                 transaction, so it shouldn't block for long
+     */
+    public void forEachUserSkill(Collection<String> userIds, BiConsumer<String, UserSkill> consumer) {
+        Set<String> distinctUserIds = new LinkedHashSet<>(userIds);
+        Map<String, Map<UUID, Integer>> pendingLevels = userSkillsWriteBehind == null ? Map.of() :
+                userSkillsWriteBehind.getPending(distinctUserIds);
+
+        streamUserSkills(distinctUserIds, (userId, userSkill) -> {
+            Map<UUID, Integer> levels = pendingLevels.get(userId);
+            Integer level = levels == null ? null : levels.remove(userSkill.getSkillId());
+            consumer.accept(userId, level == null ? userSkill : new UserSkill(userSkill.getSkillId(), level));
+        });
+        // the buffered skills, which are not persisted yet
+        pendingLevels.forEach((userId, levels) ->
+                levels.forEach((skillId, level) -> consumer.accept(userId, new UserSkill(skillId, level))));
+    }
+
+    private Map<String, List<UserSkill>> queryUsersSkills(Collection<String> userIds) {
+        Map<String, List<UserSkill>> usersSkills = new HashMap<>();
+        streamUserSkills(userIds, (userId, userSkill) ->
+                usersSkills.computeIfAbsent(userId, id -> new ArrayList<>()).add(userSkill));
+        return usersSkills;
+    }
+
+    private void streamUserSkills(Collection<String> userIds, BiConsumer<String, UserSkill> consumer) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        // PostgreSQL fetches the rows by portions only within a transaction, otherwise all of them are loaded
+        timed("getUsersSkills", 1, () -> readOnlyTransactionTemplate.execute(status -> {
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT userId, skillId, level FROM user_skills WHERE userId = ANY(?)");
+                ps.setFetchSize(FETCH_SIZE);
+                ps.setArray(1, con.createArrayOf("varchar", userIds.toArray()));
+                return ps;
+            }, rs -> {
+                consumer.accept(rs.getString("userId"),
+                        new UserSkill(rs.getObject("skillId", UUID.class), rs.getInt("level")));
+            });
+            return null;
+        }));
+    }
+
+    /**
+     * Exports the users' skills along with the skills' codes. The rows are read through the cursor by portions
+     * within the read-only transaction and are written one by one, so the export takes constant memory
+     * regardless of the size of the table. The rows are not ordered, the code is null for the unknown skills.
+     * @param userIds user IDs to export the skills of, or null to export the whole table
+     * @param format  format of the export
+     * @param gzip    true to compress the export with gzip
+     * @param out     stream to write the export to, it is not closed
+     * @return number of the exported rows
+     * @throws IOException if a problem with writing to the stream occurred
+     */
+    public long exportUserSkills(Collection<String> userIds, ExportFormat format, boolean gzip,
+                                 OutputStream out) throws IOException {
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(new NonClosingOutputStream(out), BUFFER_SIZE) : null;
+        long[] count = new long[1];
+        // the writer closes the gzip stream, which releases its native deflater, even if the query failed
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                gzipOut != null ? gzipOut : new NonClosingOutputStream(out), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            RowWriter rowWriter = format == ExportFormat.CSV ? new CsvRowWriter(writer) :
+                    new JsonLinesRowWriter(writer);
+            rowWriter.writeHeader();
+            timed("exportUserSkills", 1, () -> readOnlyTransactionTemplate.execute(status -> {
+                jdbcTemplate.query(con -> {
+                    PreparedStatement ps = con.prepareStatement(userIds == null ? EXPORT_USER_SKILLS_SQL :
+                            EXPORT_USER_SKILLS_SQL + " WHERE us.userId = ANY(?)");
+                    ps.setFetchSize(FETCH_SIZE);
+                    if (userIds != null) {
+                        ps.setArray(1, con.createArrayOf("varchar", userIds.toArray()));
+                    }
+                    return ps;
+                }, rs -> {
+                    try {
+                        rowWriter.writeRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getInt(4));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    count[0]++;
                 });
+                return null;
+            }));
+            rowWriter.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.info("{} users' skills are exported as {}", count[0], format);
+        return count[0];
     }
 
     /**
-     * Updates the list of obtained by the user skills.
+     * Updates the list of obtained by the user skills in batches within a single transaction.
      * @param userId     user ID
      * @param userSkills list of skills
      */
     public void updateUserSkills(String userId, List<UserSkill> userSkills) {
-        userSkills.forEach(us -> updateUserSingleSkill(userId, us));
+        updateUserSkills(Map.of(userId, userSkills));
     }
 
     /**
-     * Inserts a new skills to the list of obtained by the user skills.
-     * @param userId    user ID
-     * @param userSkill skill
+     * Updates the lists of obtained by the users skills in batches within a single transaction. In the
+     * write-behind mode the updates are buffered and written later.
+     * @param usersSkills lists of skills by user ID
+     * @throws IllegalStateException if the write-behind buffer is full, e.g. the database is unavailable for long
      */
-    private void updateUserSingleSkill(String userId, UserSkill userSkill) {
-        jdbcTemplate.update("INSERT INTO user_skills (userId, skillId, level) VALUES (?, ?, ?) " +
-                        "ON CONFLICT (userid, skillid) DO UPDATE SET level = ?",
-                userId, userSkill.getSkillId(), userSkill.getLevel(), userSkill.getLevel());
+    public void updateUserSkills(Map<String, ? extends Collection<UserSkill>> usersSkills) {
+        if (userSkillsWriteBehind != null) {
+            userSkillsWriteBehind.add(usersSkills);
+            return;
+        }
+        writeUserSkills(usersSkills);
+    }
+
+    private void writeUserSkills(Map<String, ? extends Collection<UserSkill>> usersSkills) {
+        List<Map.Entry<String, UserSkill>> rows = new ArrayList<>();
+        usersSkills.forEach((userId, userSkills) ->
+                userSkills.forEach(userSkill -> rows.add(Map.entry(userId, userSkill))));
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        timed("updateUserSkills", rows.size(), () -> transactionTemplate.execute(status ->
+                jdbcTemplate.batchUpdate(UPSERT_USER_SKILL_SQL, rows, BATCH_SIZE, (ps, row) -> {
+                    ps.setString(1, row.getKey());
+                    ps.setObject(2, row.getValue().getSkillId());
+                    ps.setInt(3, row.getValue().getLevel());
+                })));
+
+        if (userSkillsCache != null) {
+            usersSkills.keySet().forEach(userSkillsCache::invalidate);
+        }
+    }
+
+    /**
+     * Format of the users' skills export.
+     */
+    public enum ExportFormat {
+
+        /**
+         * JSON object per line with the {@code userId}, {@code skillId}, {@code code} and {@code level} fields.
+         */
+        JSON_LINES,
+
+        /**
+         * RFC 4180 CSV with the header of the {@code userId}, {@code skillId}, {@code code} and {@code level}
+         * columns.
+         */
+        CSV
+    }
+
+    private interface RowWriter {
+
+        default void writeHeader() throws IOException {
+        }
+
+        void writeRow(String userId, String skillId, String code, int level) throws IOException;
+
+        default void finish() throws IOException {
+        }
+    }
+
+    private class JsonLinesRowWriter implements RowWriter {
+
+        private final JsonGenerator generator;
+
+        JsonLinesRowWriter(Writer writer) throws IOException {
+            this.generator = jsonFactory.createGenerator(writer)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .setRootValueSeparator(null);
+        }
+
+        @Override
+        public void writeRow(String userId, String skillId, String code, int level) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField(EXPORT_COLUMNS[0], userId);
+            generator.writeStringField(EXPORT_COLUMNS[1], skillId);
+            generator.writeStringField(EXPORT_COLUMNS[2], code);
+            generator.writeNumberField(EXPORT_COLUMNS[3], level);
+            generator.writeEndObject();
+            // the line break goes through the generator's buffer, so the rows aren't flushed one by one
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.close();
+        }
+    }
+
+    private static class CsvRowWriter implements RowWriter {
+
+        private final Writer writer;
+
+        CsvRowWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void writeHeader() throws IOException {
+            writer.write(String.join(",", EXPORT_COLUMNS));
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(String userId, String skillId, String code, int level) throws IOException {
+            writeField(userId);
+            writer.write(',');
+            writeField(skillId);
+            writer.write(',');
+            writeField(code);
+            writer.write(',');
+            writer.write(Integer.toString(level));
+            writer.write("\r\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quoted) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Stream, which doesn't close the underlying stream, so the export's writers can be closed to flush them.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 }
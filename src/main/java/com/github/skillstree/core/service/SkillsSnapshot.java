@@ -0,0 +1,212 @@
+package com.github.skillstree.core.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.github.skillstree.core.model.CompactSkillsTree;
+
+/**
+ * Snapshot of the skills trees and the skills mappings at a commit of the skills repository, which is kept
+ * in a binary file to start without the repository, the YAML files and the database.
+ * <p>
+ * The file consists of the header (the magic number, the version and the CRC32 of the rest) followed by
+ * the string table, the commit id, the mappings and the trees. The strings are written once and are referred
+ * by their numbers, so the codes shared by the trees and the mappings are stored once. The file is read via
+ * the memory-mapped channel without intermediate copies.
+ */
+public final class SkillsSnapshot {
+
+    private static final int MAGIC = 0x534B5453;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+
+    private final String commitId;
+
+    private final Map<String, CompactSkillsTree> trees;
+
+    private final Map<String, UUID> mappings;
+
+    /**
+     * Constructor.
+     * @param commitId id of the commit the trees are retrieved at
+     * @param trees    skills trees by the names of their root directories
+     * @param mappings skills ids by their codes
+     */
+    public SkillsSnapshot(String commitId, Map<String, CompactSkillsTree> trees, Map<String, UUID> mappings) {
+        this.commitId = Objects.requireNonNull(commitId);
+        this.trees = Collections.unmodifiableMap(new LinkedHashMap<>(trees));
+        this.mappings = Collections.unmodifiableMap(new HashMap<>(mappings));
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public Map<String, CompactSkillsTree> getTrees() {
+        return trees;
+    }
+
+    public Map<String, UUID> getMappings() {
+        return mappings;
+    }
+
+    /**
+     * Writes the snapshot to the temporary file in the same directory and renames it atomically, so
+     * the readers never see a half-written snapshot.
+     * @param file snapshot file
+     * @throws IOException if a problem with writing occurred
+     */
+    public void write(Path file) throws IOException {
+        // the strings are numbered beforehand, so the string table is written ahead of the rest in one pass
+        Map<String, Integer> stringIds = new LinkedHashMap<>();
+        stringId(commitId, stringIds);
+        mappings.keySet().forEach(code -> stringId(code, stringIds));
+        trees.forEach((treeName, tree) -> {
+            stringId(treeName, stringIds);
+            for (int i = 0; i < tree.size(); i++) {
+                stringId(tree.getCode(i), stringIds);
+                stringId(tree.getName(i), stringIds);
+                stringId(tree.getFullName(i), stringIds);
+                stringId(tree.getDescription(i), stringIds);
+            }
+        });
+        ToIntFunction<String> numbering = string -> string == null ? -1 : stringIds.get(string);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "." + file.getFileName() + ".", ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                DataOutputStream header = new DataOutputStream(fileOut);
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                // the checksum is not known yet, it is written in place when the rest is written
+                header.writeLong(0);
+
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(fileOut, crc));
+                out.writeInt(stringIds.size());
+                for (String string : stringIds.keySet()) {
+                    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                out.writeInt(numbering.applyAsInt(commitId));
+                out.writeInt(mappings.size());
+                for (Map.Entry<String, UUID> mapping : mappings.entrySet()) {
+                    out.writeInt(numbering.applyAsInt(mapping.getKey()));
+                    out.writeLong(mapping.getValue().getMostSignificantBits());
+                    out.writeLong(mapping.getValue().getLeastSignificantBits());
+                }
+                out.writeInt(trees.size());
+                for (Map.Entry<String, CompactSkillsTree> tree : trees.entrySet()) {
+                    out.writeInt(numbering.applyAsInt(tree.getKey()));
+                    tree.getValue().writeTo(out, numbering);
+                }
+                out.flush();
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).putLong(0, crc.getValue());
+                channel.write(checksum, HEADER_SIZE - Long.BYTES);
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static int stringId(String string, Map<String, Integer> stringIds) {
+        if (string == null) {
+            return -1;
+        }
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = stringIds.size();
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+
+    /**
+     * Reads the snapshot from the file.
+     * @param file snapshot file
+     * @return snapshot
+     * @throws IOException if a problem with reading occurred or the file is not a valid snapshot
+     */
+    public static SkillsSnapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException("File " + file + " is not a skills snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Version " + version + " of the skills snapshot " + file + " is not supported");
+            }
+            long checksum = buffer.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new IOException("Skills snapshot " + file + " is corrupted");
+            }
+
+            try {
+                return read(buffer);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException |
+                     IllegalArgumentException e) {
+                throw new IOException("Skills snapshot " + file + " is corrupted", e);
+            }
+        }
+    }
+
+    private static SkillsSnapshot read(ByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        String commitId = strings[buffer.getInt()];
+        int mappingCount = buffer.getInt();
+        Map<String, UUID> mappings = new HashMap<>(mappingCount * 2);
+        for (int i = 0; i < mappingCount; i++) {
+            String code = strings[buffer.getInt()];
+            mappings.put(code, new UUID(buffer.getLong(), buffer.getLong()));
+        }
+
+        int treeCount = buffer.getInt();
+        Map<String, CompactSkillsTree> trees = new LinkedHashMap<>();
+        for (int i = 0; i < treeCount; i++) {
+            String name = strings[buffer.getInt()];
+            trees.put(name, CompactSkillsTree.readFrom(buffer, strings));
+        }
+        return new SkillsSnapshot(commitId, trees, mappings);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.skillstree.core.service;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.github.skillstree.core.transformer.SkillsFile;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * Source of the skills files, e.g. the git repository ({@link GitSkillsSource}) or a local directory edited by
+ * hand ({@link DirectorySkillsSource}). Every state of the files has a version, the files changed between two
+ * versions can be listed, so the skills trees are patched instead of being parsed from scratch.
+ */
+public interface SkillsSource extends AutoCloseable {
+
+    /**
+     * Brings the skills files up to date, e.g. fetches the repository.
+     * @return root directory of the skills files
+     * @throws GitAPIException if a problem with the skills repository occurred
+     * @throws IOException     if a problem in work with files occurred
+     */
+    SkillsFile retrieve() throws GitAPIException, IOException;
+
+    /**
+     * Returns the version of the files brought by the last {@link #retrieve()}, e.g. the commit id.
+     * @return version or null if it is unknown
+     */
+    String getVersion();
+
+    /**
+     * Lists the files changed since the version till the current one.
+     * @param version version of the files retrieved before
+     * @return '/' separated paths relative to the root directory, or null if the changes cannot be obtained
+     */
+    List<String> getChangedFilesAfter(String version);
+
+    /**
+     * Returns the version the files would have after {@link #retrieve()}, it is obtained without retrieving
+     * the files, e.g. the commit of the remote branch.
+     * @return version or null if it is unknown
+     * @throws GitAPIException if a problem with the skills repository occurred
+     * @throws IOException     if a problem in work with files occurred
+     */
+    String getLatestVersion() throws GitAPIException, IOException;
+
+    /**
+     * Returns whether the versions identify the same files across the restarts and the instances, e.g. the
+     * commit ids. Only such versions are kept in the database as the last commit of the skills repository.
+     * @return true by default
+     */
+    default boolean isVersionPersistent() {
+        return true;
+    }
+
+    @Override
+    void close();
+}
@@ -0,0 +1,269 @@
+package com.github.skillstree.core.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import com.github.skillstree.core.model.UserSkill;
+
+/**
+ * Read-through cache of the users' skills with LRU eviction and TTL.
+ * <p>
+ * The local writes invalidate the cached lists of the written users, the loads of those users started before
+ * the invalidation are not cached. The cached skills are copied, so the callers may change the returned ones.
+ * The writes made by other instances sharing the database are not seen until the entries expire,
+ * so the TTL is the bound of the staleness in that case and should be kept short.
+ */
+public class UserSkillsCache {
+
+    private final int maxSize;
+
+    private final long ttlMillis;
+
+    private final Clock clock;
+
+    private final Map<String, Entry> entries;
+
+    /**
+     * Loads in progress, the users invalidated during a load are not cached by it.
+     */
+    private final Set<PendingLoad> pendingLoads = new HashSet<>();
+
+    private long hitCount;
+
+    private long missCount;
+
+    private long evictionCount;
+
+    private long expirationCount;
+
+    public UserSkillsCache(int maxSize, Duration ttl) {
+        this(maxSize, ttl, Clock.systemUTC());
+    }
+
+    /**
+     * Constructor.
+     * @param maxSize maximal number of the cached users
+     * @param ttl     time after which the cached list of a user is loaded again
+     * @param clock   clock
+     */
+    public UserSkillsCache(int maxSize, Duration ttl, Clock clock) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size should be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > UserSkillsCache.this.maxSize) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached skills of the user or loads them if they are not cached or expired.
+     * @param userId user ID
+     * @param loader loader of the user's skills
+     * @return list of obtained by the user skills
+     */
+    public List<UserSkill> get(String userId, Function<String, List<UserSkill>> loader) {
+        PendingLoad load;
+        synchronized (this) {
+            Entry entry = entries.get(userId);
+            if (entry != null) {
+                if (clock.millis() - entry.loadedAt < ttlMillis) {
+                    hitCount++;
+                    return entry.toUserSkills();
+                }
+                entries.remove(userId);
+                expirationCount++;
+            }
+            missCount++;
+            load = startLoad();
+        }
+
+        Entry entry;
+        try {
+            entry = new Entry(loader.apply(userId), clock.millis());
+            synchronized (this) {
+                put(userId, entry, load);
+            }
+        } finally {
+            completeLoad(load);
+        }
+        return entry.toUserSkills();
+    }
+
+    /**
+     * Returns the cached skills of the users and loads the rest of them at once.
+     * @param userIds user IDs
+     * @param loader  loader of the skills of the users, which are not cached or expired
+     * @return lists of obtained by the users skills by user ID, the users without skills may be absent
+     */
+    public Map<String, List<UserSkill>> getAll(Collection<String> userIds,
+                                               Function<Collection<String>, Map<String, List<UserSkill>>> loader) {
+        Map<String, List<UserSkill>> usersSkills = new HashMap<>();
+        List<String> missingUserIds = new ArrayList<>();
+        PendingLoad load;
+        synchronized (this) {
+            long now = clock.millis();
+            for (String userId : userIds) {
+                Entry entry = entries.get(userId);
+                if (entry != null && now - entry.loadedAt < ttlMillis) {
+                    hitCount++;
+                    usersSkills.put(userId, entry.toUserSkills());
+                    continue;
+                }
+                if (entry != null) {
+                    entries.remove(userId);
+                    expirationCount++;
+                }
+                missCount++;
+                missingUserIds.add(userId);
+            }
+            if (missingUserIds.isEmpty()) {
+                return usersSkills;
+            }
+            load = startLoad();
+        }
+
+        try {
+            Map<String, List<UserSkill>> loaded = loader.apply(missingUserIds);
+            long loadedAt = clock.millis();
+            List<Entry> loadedEntries = new ArrayList<>(missingUserIds.size());
+            for (String userId : missingUserIds) {
+                Entry entry = new Entry(loaded.getOrDefault(userId, List.of()), loadedAt);
+                loadedEntries.add(entry);
+                usersSkills.put(userId, entry.toUserSkills());
+            }
+            synchronized (this) {
+                for (int i = 0; i < missingUserIds.size(); i++) {
+                    put(missingUserIds.get(i), loadedEntries.get(i), load);
+                }
+            }
+        } finally {
+            completeLoad(load);
+        }
+        return usersSkills;
+    }
+
+    private PendingLoad startLoad() {
+        PendingLoad load = new PendingLoad();
+        pendingLoads.add(load);
+        return load;
+    }
+
+    private synchronized void completeLoad(PendingLoad load) {
+        pendingLoads.remove(load);
+    }
+
+    /**
+     * Caches the loaded skills unless the user is invalidated while they were loaded.
+     */
+    private void put(String userId, Entry entry, PendingLoad load) {
+        if (!load.allInvalidated && !load.invalidatedUserIds.contains(userId)) {
+            entries.put(userId, entry);
+        }
+    }
+
+    /**
+     * Removes the cached skills of the user, the loads of the user's skills in progress are not cached.
+     * @param userId user ID
+     */
+    public synchronized void invalidate(String userId) {
+        for (PendingLoad load : pendingLoads) {
+            load.invalidatedUserIds.add(userId);
+        }
+        entries.remove(userId);
+    }
+
+    /**
+     * Removes all the cached skills.
+     */
+    public synchronized void invalidateAll() {
+        for (PendingLoad load : pendingLoads) {
+            load.allInvalidated = true;
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of the entries evicted because of the size limit.
+     * @return eviction count
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of the entries removed because of the TTL.
+     * @return expiration count
+     */
+    public synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Cached skills of a user, they are kept in the arrays, so the callers cannot change them.
+     */
+    private static class Entry {
+
+        private final UUID[] skillIds;
+
+        private final int[] levels;
+
+        private final long loadedAt;
+
+        Entry(List<UserSkill> userSkills, long loadedAt) {
+            this.skillIds = new UUID[userSkills.size()];
+            this.levels = new int[userSkills.size()];
+            for (int i = 0; i < skillIds.length; i++) {
+                skillIds[i] = userSkills.get(i).getSkillId();
+                levels[i] = userSkills.get(i).getLevel();
+            }
+            this.loadedAt = loadedAt;
+        }
+
+        List<UserSkill> toUserSkills() {
+            List<UserSkill> userSkills = new ArrayList<>(skillIds.length);
+            for (int i = 0; i < skillIds.length; i++) {
+                userSkills.add(new UserSkill(skillIds[i], levels[i]));
+            }
+            return userSkills;
+        }
+    }
+
+    private static class PendingLoad {
+
+        private final Set<String> invalidatedUserIds = new HashSet<>();
+
+        private boolean allInvalidated;
+    }
+}
@@ -0,0 +1,429 @@
+package com.github.skillstree.core.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.github.skillstree.core.model.UserSkill;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind buffer of the users' skills updates. The updates are coalesced by the user and the skill,
+ * only the last level is written. The buffer is flushed in the background when it holds the maximal number
+ * of the updates or when the oldest update waits for the maximal delay, and on {@link #close()} or
+ * the JVM shutdown.
+ * <p>
+ * The buffered updates are visible to {@link PersistenceService#getUserSkills(String)} until they are written,
+ * so a user reads their own writes. A failed flush keeps the updates buffered, they are retried with
+ * the exponential backoff, and no other flush is started until the retry. While the database is unavailable
+ * the buffer grows up to the hard limit, the updates beyond it are rejected.
+ */
+public class UserSkillsWriteBehind implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserSkillsWriteBehind.class);
+
+    private final int maxPendingUpdates;
+
+    private final long maxDelayMillis;
+
+    private int maxBufferedUpdates;
+
+    private long maxRetryDelayMillis = TimeUnit.MINUTES.toMillis(5);
+
+    private final Object flushLock = new Object();
+
+    private Map<String, Map<UUID, Integer>> pending = new HashMap<>();
+
+    private Map<String, Map<UUID, Integer>> inFlight = Map.of();
+
+    private int pendingCount;
+
+    private int inFlightCount;
+
+    private long updateCount;
+
+    private long writtenCount;
+
+    private long flushCount;
+
+    private long failedFlushCount;
+
+    private int consecutiveFailures;
+
+    private boolean retryScheduled;
+
+    private Consumer<Map<String, List<UserSkill>>> writer;
+
+    private ScheduledExecutorService scheduler;
+
+    private Thread shutdownHook;
+
+    /**
+     * Constructor.
+     * @param maxPendingUpdates number of the coalesced updates, which triggers the flush
+     * @param maxDelay          maximal time an update waits for the flush
+     */
+    public UserSkillsWriteBehind(int maxPendingUpdates, Duration maxDelay) {
+        if (maxPendingUpdates <= 0) {
+            throw new IllegalArgumentException("Max pending updates should be positive");
+        }
+        if (maxDelay.isNegative() || maxDelay.isZero()) {
+            throw new IllegalArgumentException("Max delay should be positive");
+        }
+        this.maxPendingUpdates = maxPendingUpdates;
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.maxBufferedUpdates = maxPendingUpdates * 10;
+    }
+
+    /**
+     * Sets the hard limit of the coalesced updates held by the buffer, it is reached only if the flushes fail.
+     * It is 10 times the number of the updates triggering the flush by default.
+     * @param maxBufferedUpdates maximal number of the buffered updates, the updates beyond it are rejected
+     * @return this buffer
+     */
+    public synchronized UserSkillsWriteBehind setMaxBufferedUpdates(int maxBufferedUpdates) {
+        if (maxBufferedUpdates < maxPendingUpdates) {
+            throw new IllegalArgumentException("Max buffered updates should not be less than max pending updates");
+        }
+        this.maxBufferedUpdates = maxBufferedUpdates;
+        return this;
+    }
+
+    /**
+     * Sets the maximal delay of the retry after the failed flushes, the delay starts at the maximal delay of
+     * an update and doubles with every failure. It is 5 minutes by default.
+     * @param maxRetryDelay maximal delay of the retry
+     * @return this buffer
+     */
+    public synchronized UserSkillsWriteBehind setMaxRetryDelay(Duration maxRetryDelay) {
+        if (maxRetryDelay.isNegative() || maxRetryDelay.isZero()) {
+            throw new IllegalArgumentException("Max retry delay should be positive");
+        }
+        this.maxRetryDelayMillis = maxRetryDelay.toMillis();
+        return this;
+    }
+
+    /**
+     * Starts the background flushes.
+     * @param writer writer of the users' skills to the database, it should be transactional
+     */
+    synchronized void start(Consumer<Map<String, List<UserSkill>>> writer) {
+        if (this.writer != null) {
+            throw new IllegalStateException("Write-behind buffer is already used by another service");
+        }
+        this.writer = writer;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "user-skills-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the delayed flushes and retries are dropped by close(), which writes the buffer itself
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        scheduler = executor;
+        shutdownHook = new Thread(this::flushQuietly, "user-skills-write-behind-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Buffers the updates of the users' skills.
+     * @param usersSkills lists of skills by user ID
+     * @throws IllegalStateException if the buffer is closed or the updates would exceed its hard limit, none of
+     *                               the updates is buffered then
+     */
+    void add(Map<String, ? extends Collection<UserSkill>> usersSkills) {
+        boolean firstUpdate;
+        boolean full;
+        synchronized (this) {
+            if (scheduler == null || scheduler.isShutdown()) {
+                throw new IllegalStateException("Write-behind buffer is not started or is closed");
+            }
+            int newUpdates = countNewUpdates(usersSkills);
+            if (newUpdates > 0 && pendingCount + inFlightCount + newUpdates > maxBufferedUpdates) {
+                throw new IllegalStateException("Write-behind buffer is full, " + (pendingCount + inFlightCount) +
+                        " updates of the users' skills are not written yet");
+            }
+            firstUpdate = pendingCount == 0;
+            usersSkills.forEach((userId, userSkills) -> {
+                Map<UUID, Integer> levels = pending.computeIfAbsent(userId, id -> new LinkedHashMap<>());
+                for (UserSkill userSkill : userSkills) {
+                    if (levels.put(userSkill.getSkillId(), userSkill.getLevel()) == null) {
+                        pendingCount++;
+                    }
+                    updateCount++;
+                }
+            });
+            full = pendingCount >= maxPendingUpdates;
+            if (retryScheduled) {
+                // the retry writes these updates as well, the database isn't hit before the backoff passes
+                return;
+            }
+        }
+
+        try {
+            if (full) {
+                scheduler.execute(this::flushUnlessRetryScheduled);
+            } else if (firstUpdate) {
+                scheduler.schedule(this::flushUnlessRetryScheduled, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // the buffer is being closed, the updates are written by the closing flush
+        }
+    }
+
+    /**
+     * Counts the updates, which aren't coalesced with the buffered ones.
+     */
+    private int countNewUpdates(Map<String, ? extends Collection<UserSkill>> usersSkills) {
+        int newUpdates = 0;
+        for (Map.Entry<String, ? extends Collection<UserSkill>> entry : usersSkills.entrySet()) {
+            Map<UUID, Integer> levels = pending.get(entry.getKey());
+            for (UserSkill userSkill : entry.getValue()) {
+                if (levels == null || !levels.containsKey(userSkill.getSkillId())) {
+                    newUpdates++;
+                }
+            }
+        }
+        return newUpdates;
+    }
+
+    /**
+     * Returns the levels of the user's skills, which are buffered or being written.
+     * @param userId user ID
+     * @return levels by the skills' ids
+     */
+    synchronized Map<UUID, Integer> getPending(String userId) {
+        Map<UUID, Integer> inFlightLevels = inFlight.get(userId);
+        Map<UUID, Integer> pendingLevels = pending.get(userId);
+        if (inFlightLevels == null && pendingLevels == null) {
+            return Map.of();
+        }
+        Map<UUID, Integer> levels = new LinkedHashMap<>();
+        if (inFlightLevels != null) {
+            levels.putAll(inFlightLevels);
+        }
+        if (pendingLevels != null) {
+            levels.putAll(pendingLevels);
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the levels of the users' skills, which are buffered or being written.
+     * @param userIds user IDs
+     * @return levels by the skills' ids by user ID, only for the users with such levels
+     */
+    synchronized Map<String, Map<UUID, Integer>> getPending(Collection<String> userIds) {
+        Map<String, Map<UUID, Integer>> usersLevels = new HashMap<>();
+        for (String userId : userIds) {
+            Map<UUID, Integer> levels = getPending(userId);
+            if (!levels.isEmpty()) {
+                usersLevels.put(userId, levels);
+            }
+        }
+        return usersLevels;
+    }
+
+    /**
+     * Applies the buffered levels to the persisted skills of the user.
+     * @param userSkills persisted skills
+     * @param levels     buffered levels by the skills' ids
+     * @return skills of the user
+     */
+    static List<UserSkill> apply(List<UserSkill> userSkills, Map<UUID, Integer> levels) {
+        if (levels.isEmpty()) {
+            return userSkills;
+        }
+        Map<UUID, Integer> remaining = new LinkedHashMap<>(levels);
+        List<UserSkill> result = new ArrayList<>(userSkills.size() + levels.size());
+        for (UserSkill userSkill : userSkills) {
+            Integer level = remaining.remove(userSkill.getSkillId());
+            result.add(level == null ? userSkill : new UserSkill(userSkill.getSkillId(), level));
+        }
+        remaining.forEach((skillId, level) -> result.add(new UserSkill(skillId, level)));
+        return result;
+    }
+
+    /**
+     * Writes all the buffered updates.
+     * @throws RuntimeException if the writer failed, the updates stay buffered then
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<String, Map<UUID, Integer>> batch;
+            int batchCount;
+            synchronized (this) {
+                if (pendingCount == 0 || writer == null) {
+                    return;
+                }
+                batch = pending;
+                batchCount = pendingCount;
+                inFlight = batch;
+                inFlightCount = batchCount;
+                pending = new HashMap<>();
+                pendingCount = 0;
+            }
+
+            Map<String, List<UserSkill>> usersSkills = new HashMap<>();
+            batch.forEach((userId, levels) -> {
+                List<UserSkill> userSkills = new ArrayList<>(levels.size());
+                levels.forEach((skillId, level) -> userSkills.add(new UserSkill(skillId, level)));
+                usersSkills.put(userId, userSkills);
+            });
+
+            try {
+                writer.accept(usersSkills);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    // the updates buffered during the flush are newer than the failed ones
+                    batch.forEach((userId, levels) -> {
+                        Map<UUID, Integer> newer = pending.get(userId);
+                        if (newer != null) {
+                            levels.putAll(newer);
+                        }
+                        pending.put(userId, levels);
+                    });
+                    pendingCount = pending.values().stream().mapToInt(Map::size).sum();
+                    inFlight = Map.of();
+                    inFlightCount = 0;
+                    failedFlushCount++;
+                    consecutiveFailures++;
+                    scheduleRetry();
+                }
+                throw e;
+            }
+
+            synchronized (this) {
+                inFlight = Map.of();
+                inFlightCount = 0;
+                writtenCount += batchCount;
+                flushCount++;
+                consecutiveFailures = 0;
+            }
+            logger.debug("{} buffered updates of the users' skills are written", batchCount);
+        }
+    }
+
+    /**
+     * Schedules the retry of the failed flush unless it is scheduled already, the delay doubles with every
+     * failure in a row.
+     */
+    private synchronized void scheduleRetry() {
+        if (retryScheduled || scheduler.isShutdown()) {
+            return;
+        }
+        int exponent = Math.min(consecutiveFailures - 1, 30);
+        long delayMillis = Math.min(maxDelayMillis * (1L << exponent), Math.max(maxRetryDelayMillis, maxDelayMillis));
+        try {
+            scheduler.schedule(this::retry, delayMillis, TimeUnit.MILLISECONDS);
+            retryScheduled = true;
+        } catch (RejectedExecutionException e) {
+            // the buffer is being closed, the updates are written by the closing flush
+        }
+    }
+
+    /**
+     * Flushes the buffer unless the retry of a failed flush is scheduled, e.g. the flush was scheduled before
+     * the failure. The retry writes the buffered updates then.
+     */
+    private void flushUnlessRetryScheduled() {
+        synchronized (this) {
+            if (retryScheduled) {
+                return;
+            }
+        }
+        flushQuietly();
+    }
+
+    private void retry() {
+        synchronized (this) {
+            retryScheduled = false;
+        }
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Cannot write the buffered updates of the users' skills", e);
+        }
+    }
+
+    /**
+     * Stops the background flushes and writes the buffered updates.
+     * @throws RuntimeException if the writer failed
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService closedScheduler;
+        synchronized (this) {
+            closedScheduler = scheduler;
+            if (closedScheduler == null || closedScheduler.isShutdown()) {
+                return;
+            }
+            closedScheduler.shutdown();
+        }
+        try {
+            closedScheduler.awaitTermination(maxDelayMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down, the hook flushes the buffer as well
+        }
+        flush();
+    }
+
+    /**
+     * Returns the number of the coalesced updates waiting for the flush.
+     * @return pending updates
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Returns the number of the buffered updates, including the overwritten ones.
+     * @return update count
+     */
+    public synchronized long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * Returns the number of the coalesced updates written to the database.
+     * @return written count
+     */
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * Returns the number of the successful flushes.
+     * @return flush count
+     */
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * Returns the number of the failed flushes, including the failed retries.
+     * @return failed flush count
+     */
+    public synchronized long getFailedFlushCount() {
+        return failedFlushCount;
+    }
+}
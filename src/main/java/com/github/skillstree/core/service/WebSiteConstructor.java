@@ -1,5 +1,10 @@
 package com.github.skillstree.core.service;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Constructor of a single-page website representation of the skills tree.
  */
@@ -10,4 +15,64 @@ public interface WebSiteConstructor {
      * @param skillsTreeJson skills tree in JSON string
      */
     void updateSkillsTree(String skillsTreeJson);
+
+    /**
+     * Updates skills tree used by the website, the JSON is written straight to the stream provided by
+     * the constructor. The default implementation collects the JSON into a string and passes it to
+     * {@link #updateSkillsTree(String)}, so the implementations should override it to avoid that copy.
+     * @param skillsTreeJson writer of the skills tree JSON
+     * @throws IOException if a problem with writing of the JSON occurred
+     */
+    default void updateSkillsTree(JsonContent skillsTreeJson) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        skillsTreeJson.writeTo(out);
+        updateSkillsTree(out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Updates the specified skills tree used by the website, the JSON is written straight to the stream provided
+     * by the constructor. The default implementation ignores the tree's id and calls
+     * {@link #updateSkillsTree(JsonContent)}.
+     * @param treeId         name of the skills tree's root directory
+     * @param skillsTreeJson writer of the skills tree JSON
+     * @throws IOException if a problem with writing of the JSON occurred
+     */
+    default void updateSkillsTree(String treeId, JsonContent skillsTreeJson) throws IOException {
+        updateSkillsTree(skillsTreeJson);
+    }
+
+    /**
+     * Tells whether the constructor applies the patches by {@link #patchSkillsTree(String, String)}, the patches
+     * are not computed otherwise. The implementations overriding that method should return true.
+     * @return true if the patches are supported, the default is false
+     */
+    default boolean acceptsPatches() {
+        return false;
+    }
+
+    /**
+     * Applies the changes to the skills tree previously published by {@link #updateSkillsTree(JsonContent)}.
+     * The default implementation doesn't support the patches, the full tree is published then.
+     * @param treeId    name of the skills tree's root directory
+     * @param jsonPatch RFC 6902 JSON Patch of the published skills tree JSON
+     * @return true if the patch is applied, false if the full tree should be published instead
+     * @throws IOException if a problem with applying of the patch occurred
+     */
+    default boolean patchSkillsTree(String treeId, String jsonPatch) throws IOException {
+        return false;
+    }
+
+    /**
+     * JSON content, which is written on demand.
+     */
+    @FunctionalInterface
+    interface JsonContent {
+
+        /**
+         * Writes the JSON in UTF-8 to the stream.
+         * @param out stream to write to, it is not closed by the content
+         * @throws IOException if a problem with writing occurred
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
 }
@@ -0,0 +1,98 @@
+package com.github.skillstree.core.transformer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * {@link SkillsFile} read straight from the git object database, the blobs are streamed from their loaders.
+ */
+class GitSkillsFile implements SkillsFile {
+
+    private final Repository repository;
+
+    private final String path;
+
+    private final String name;
+
+    private final ObjectId objectId;
+
+    private final boolean directory;
+
+    GitSkillsFile(Repository repository, String path, String name, ObjectId objectId, boolean directory) {
+        this.repository = repository;
+        this.path = path;
+        this.name = name;
+        this.objectId = objectId;
+        this.directory = directory;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    @Override
+    public List<SkillsFile> listFiles() throws IOException {
+        if (!directory) {
+            throw new IOException("Cannot list skills file " + path);
+        }
+
+        List<SkillsFile> result = new ArrayList<>();
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(objectId);
+            treeWalk.setRecursive(false);
+            while (treeWalk.next()) {
+                if (treeWalk.getFileMode(0) == FileMode.GITLINK) {
+                    continue;
+                }
+                String childName = treeWalk.getNameString();
+                result.add(new GitSkillsFile(repository, childPath(childName), childName, treeWalk.getObjectId(0),
+                        treeWalk.isSubtree()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public SkillsFile resolve(String relativePath) throws IOException {
+        try (TreeWalk treeWalk = TreeWalk.forPath(repository, relativePath, objectId)) {
+            if (treeWalk == null) {
+                return null;
+            }
+            return new GitSkillsFile(repository, childPath(relativePath), treeWalk.getNameString(),
+                    treeWalk.getObjectId(0), treeWalk.isSubtree());
+        }
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return repository.open(objectId, Constants.OBJ_BLOB).openStream();
+    }
+
+    private String childPath(String relativePath) {
+        return path.isEmpty() ? relativePath : path + "/" + relativePath;
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
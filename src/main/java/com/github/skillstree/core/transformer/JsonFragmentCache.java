@@ -0,0 +1,87 @@
+package com.github.skillstree.core.transformer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of the rendered JSON fragments of a single skills tree's subtrees by their content hashes
+ * (see {@link SkillsTreeHasher}). Only the fragments used by the last rendering of the tree are kept.
+ * A fragment holds the JSON of its own node and refers to the fragments of the child subtrees by their hashes,
+ * so every node's JSON is kept once whatever the depth of the tree.
+ * The cache is not thread-safe, the same tree should not be rendered concurrently.
+ */
+public class JsonFragmentCache {
+
+    private Map<String, Fragment> fragments = new HashMap<>();
+
+    private Map<String, Fragment> usedFragments = new HashMap<>();
+
+    void beginRendering() {
+        usedFragments = new HashMap<>();
+    }
+
+    /**
+     * Returns the fragment rendered by this or the last rendering, the fragments of its child subtrees are kept
+     * with it.
+     */
+    Fragment get(String hash) {
+        Fragment fragment = usedFragments.get(hash);
+        if (fragment == null) {
+            fragment = fragments.get(hash);
+            if (fragment != null) {
+                use(hash, fragment);
+            }
+        }
+        return fragment;
+    }
+
+    private void use(String hash, Fragment fragment) {
+        usedFragments.put(hash, fragment);
+        for (String childHash : fragment.childHashes) {
+            if (!usedFragments.containsKey(childHash)) {
+                use(childHash, fragments.get(childHash));
+            }
+        }
+    }
+
+    void put(String hash, Fragment fragment) {
+        usedFragments.put(hash, fragment);
+    }
+
+    void completeRendering() {
+        fragments = usedFragments;
+        usedFragments = new HashMap<>();
+    }
+
+    /**
+     * Returns the number of the cached fragments.
+     * @return number of fragments
+     */
+    public int size() {
+        return fragments.size();
+    }
+
+    /**
+     * JSON of a subtree, which is split by the cached child subtrees: the parts are written with the fragments
+     * of the children in between, the child subtree {@code i} goes after the part {@code i}.
+     */
+    static final class Fragment {
+
+        private final String[] parts;
+
+        private final String[] childHashes;
+
+        Fragment(String[] parts, String[] childHashes) {
+            this.parts = parts;
+            this.childHashes = childHashes;
+        }
+
+        String[] getParts() {
+            return parts;
+        }
+
+        String[] getChildHashes() {
+            return childHashes;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.skillstree.core.transformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link SkillsFile} checked out to a local directory.
+ */
+class LocalSkillsFile implements SkillsFile {
+
+    private static final Comparator<SkillsFile> GIT_ORDER =
+            Comparator.comparing(f -> f.isDirectory() ? f.getName() + "/" : f.getName());
+
+    private final File file;
+
+    private final String path;
+
+    LocalSkillsFile(File file, String path) {
+        this.file = file;
+        this.path = path;
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return file.isDirectory();
+    }
+
+    @Override
+    public List<SkillsFile> listFiles() throws IOException {
+        File[] files = file.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list skills directory " + file);
+        }
+
+        List<SkillsFile> result = new ArrayList<>(files.length);
+        for (File f : files) {
+            result.add(new LocalSkillsFile(f, childPath(f.getName())));
+        }
+        result.sort(GIT_ORDER);
+        return result;
+    }
+
+    @Override
+    public SkillsFile resolve(String relativePath) {
+        File resolved = new File(file, relativePath);
+        return resolved.exists() ? new LocalSkillsFile(resolved, childPath(relativePath)) : null;
+    }
+
+    @Override
+    public InputStream open() throws IOException {
+        return Files.newInputStream(file.toPath());
+    }
+
+    private String childPath(String relativePath) {
+        return path.isEmpty() ? relativePath : path + "/" + relativePath;
+    }
+
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
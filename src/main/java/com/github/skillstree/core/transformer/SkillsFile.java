@@ -0,0 +1,81 @@
+package com.github.skillstree.core.transformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * File or directory of the skills repository, which is either checked out to a local directory or read
+ * straight from a git commit.
+ */
+public interface SkillsFile {
+
+    String getName();
+
+    /**
+     * Returns the path relative to the repository's root, e.g. {@code java/core/core.yaml}.
+     * @return path of the file
+     */
+    String getPath();
+
+    boolean isDirectory();
+
+    /**
+     * Lists the files of the directory in git order: by name, the directories are compared as if their names
+     * end with '/'.
+     * @return files of the directory
+     * @throws IOException if the directory cannot be listed
+     */
+    List<SkillsFile> listFiles() throws IOException;
+
+    /**
+     * Resolves the file inside the directory.
+     * @param relativePath '/' separated path relative to the directory
+     * @return the file or null if it doesn't exist
+     * @throws IOException if the file cannot be resolved
+     */
+    SkillsFile resolve(String relativePath) throws IOException;
+
+    /**
+     * Opens the content of the file.
+     * @return stream of the content, it should be closed by the caller
+     * @throws IOException if the file cannot be read
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * Creates the directory of a root skill, which is checked out to the local directory.
+     * @param baseDir local directory of the root skill
+     * @return directory with the path consisting of its name
+     */
+    static SkillsFile of(File baseDir) {
+        return new LocalSkillsFile(baseDir, baseDir.getName());
+    }
+
+    /**
+     * Creates the root directory of the skills repository, which is checked out to the local directory.
+     * @param reposDir local directory of the repository
+     * @return directory with the empty path
+     */
+    static SkillsFile root(File reposDir) {
+        return new LocalSkillsFile(reposDir, "");
+    }
+
+    /**
+     * Creates the root directory of the skills repository, which is read from the git commit.
+     * @param repository git repository
+     * @param commitId   id of the commit
+     * @return directory with the empty path
+     * @throws IOException if the commit cannot be read
+     */
+    static SkillsFile root(Repository repository, AnyObjectId commitId) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            return new GitSkillsFile(repository, "", "", revWalk.parseCommit(commitId).getTree(), true);
+        }
+    }
+}
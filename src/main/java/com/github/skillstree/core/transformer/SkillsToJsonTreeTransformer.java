@@ -1,23 +1,41 @@
 package com.github.skillstree.core.transformer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.github.skillstree.core.model.Skill;
+import com.github.skillstree.core.model.CompactSkillsTree;
 import com.github.skillstree.core.model.SkillsTree;
 import com.github.skillstree.core.model.SkillsTreeJson;
+import com.github.skillstree.core.transformer.JsonFragmentCache.Fragment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Transforms skills to JSON tree structure supported by the website skills tree representation.
+ * The JSON is streamed straight from the {@link SkillsTree}, it has the same layout as {@link SkillsTreeJson}
+ * serialized by Jackson.
  */
 public class SkillsToJsonTreeTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(SkillsToJsonTreeTransformer.class);
 
+    /**
+     * Marks the places of the child fragments in the JSON of a fragment. Jackson escapes the control characters
+     * of the strings, so the character doesn't occur in the JSON otherwise.
+     */
+    private static final String CHILD_REFERENCE = "\u0000";
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public SkillsToJsonTreeTransformer() {
@@ -32,35 +50,221 @@ public class SkillsToJsonTreeTransformer {
     public String transform(SkillsTree skillsTree) throws IOException {
         logger.debug("Transformation of {} is requested", skillsTree);
 
-        Skill rootSkill = skillsTree.getRootSkill();
-        Map<UUID, Skill> skills = skillsTree.getSkills();
+        StringWriter writer = new StringWriter();
+        transform(skillsTree, writer);
+        String result = writer.toString();
+        logger.debug("Skills tree is transformed to json: {}", result);
 
-        SkillsTreeJson skillsTreeJson = new SkillsTreeJson()
-                .setChart(new SkillsTreeJson.Chart()
-                        .setContainer("#skills-tree")
-                        .setRootOrientation("WEST")
-                        .setHideRootNode(true)
-                        .setConnectors(new SkillsTreeJson.Chart.Connectors().setType("bCurve")));
+        return result;
+    }
 
-        SkillsTreeJson.NodeStructure rootNodeStructure = new SkillsTreeJson.NodeStructure();
-        skillsTreeJson.setNodeStructure(rootNodeStructure);
+    /**
+     * Transforms skills tree into JSON and writes it to the stream in UTF-8, the stream is not closed.
+     * @param skillsTree {@link SkillsTree}
+     * @param out        stream to write to
+     * @throws IOException if the problem with transformation occurred
+     */
+    public void transform(SkillsTree skillsTree, OutputStream out) throws IOException {
+        transform(skillsTree, null, null, out);
+    }
 
-        rootNodeStructure.setText(new SkillsTreeJson.NodeStructure.Text()
-                .setName(rootSkill.getName()));
-        rootSkill.getChildren().forEach(id -> parseChildren(rootNodeStructure, skills.get(id), skillsTree));
+    /**
+     * Transforms skills tree into JSON and writes it to the stream in UTF-8, the stream is not closed.
+     * The fragments of the subtrees, which are not changed since the previous transformation, are taken
+     * from the cache instead of being rendered again.
+     * @param skillsTree    {@link SkillsTree}
+     * @param subtreeHashes hashes of the subtrees computed by {@link SkillsTreeHasher}
+     * @param cache         cache of the fragments of this skills tree
+     * @param out           stream to write to
+     * @throws IOException if the problem with transformation occurred
+     */
+    public void transform(SkillsTree skillsTree, Map<UUID, String> subtreeHashes, JsonFragmentCache cache,
+                          OutputStream out) throws IOException {
+        CompactSkillsTree tree = CompactSkillsTree.of(skillsTree);
+        String[] hashes = null;
+        if (subtreeHashes != null) {
+            hashes = new String[tree.size()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = subtreeHashes.get(tree.getId(i));
+            }
+        }
+        transform(tree, hashes, cache, out);
+    }
 
-        String result = objectMapper.writeValueAsString(skillsTreeJson);
-        logger.debug("Skills tree is transformed to json: {}", result);
+    /**
+     * Transforms skills tree into JSON and writes it to the stream in UTF-8, the stream is not closed.
+     * @param skillsTree {@link CompactSkillsTree}
+     * @param out        stream to write to
+     * @throws IOException if the problem with transformation occurred
+     */
+    public void transform(CompactSkillsTree skillsTree, OutputStream out) throws IOException {
+        transform(skillsTree, null, null, out);
+    }
 
-        return result;
+    /**
+     * Transforms skills tree into JSON and writes it to the stream in UTF-8, the stream is not closed.
+     * The fragments of the subtrees, which are not changed since the previous transformation, are taken
+     * from the cache instead of being rendered again.
+     * @param skillsTree    {@link CompactSkillsTree}
+     * @param subtreeHashes hashes of the subtrees computed by {@link SkillsTreeHasher} by the skills' numbers
+     * @param cache         cache of the fragments of this skills tree
+     * @param out           stream to write to
+     * @throws IOException if the problem with transformation occurred
+     */
+    public void transform(CompactSkillsTree skillsTree, String[] subtreeHashes, JsonFragmentCache cache,
+                          OutputStream out) throws IOException {
+        if (cache != null) {
+            cache.beginRendering();
+        }
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeSkillsTree(generator, skillsTree, subtreeHashes, cache);
+        }
+        if (cache != null) {
+            cache.completeRendering();
+        }
+    }
+
+    /**
+     * Transforms skills tree into JSON and writes it to the writer, the writer is not closed.
+     * @param skillsTree {@link SkillsTree}
+     * @param writer     writer to write to
+     * @throws IOException if the problem with transformation occurred
+     */
+    public void transform(SkillsTree skillsTree, Writer writer) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeSkillsTree(generator, CompactSkillsTree.of(skillsTree), null, null);
+        }
+    }
+
+    private void writeSkillsTree(JsonGenerator generator, CompactSkillsTree tree, String[] subtreeHashes,
+                                 JsonFragmentCache cache) throws IOException {
+        int root = CompactSkillsTree.ROOT;
+
+        generator.writeStartObject();
+
+        generator.writeObjectFieldStart("chart");
+        generator.writeStringField("container", "#skills-tree");
+        generator.writeStringField("rootOrientation", "WEST");
+        generator.writeBooleanField("hideRootNode", true);
+        generator.writeObjectFieldStart("connectors");
+        generator.writeStringField("type", "bCurve");
+        generator.writeEndObject();
+        generator.writeEndObject();
+
+        generator.writeObjectFieldStart("nodeStructure");
+        generator.writeObjectFieldStart("text");
+        generator.writeStringField("name", tree.getName(root));
+        generator.writeEndObject();
+        generator.writeArrayFieldStart("children");
+        for (int i = 0; i < tree.getChildCount(root); i++) {
+            writeChildren(generator, tree, tree.getChild(root, i), subtreeHashes, cache);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+
+        generator.writeEndObject();
     }
 
-    private void parseChildren(SkillsTreeJson.NodeStructure parent, Skill skill, SkillsTree skillsTree) {
-        SkillsTreeJson.NodeStructure child = new SkillsTreeJson.NodeStructure()
-                .setHtmlId(skill.getId().toString())
-                .setInnerHtml("<div onclick='obtainSkill(\"" + skill.getId() + "\", 1)'>" + skill.getName() + "</div>");
-        parent.addChild(child);
+    private void writeChildren(JsonGenerator generator, CompactSkillsTree tree, int skill, String[] subtreeHashes,
+                               JsonFragmentCache cache) throws IOException {
+        // leaves are cheaper to render than to cache
+        if (cache == null || tree.getChildCount(skill) == 0) {
+            writeNode(generator, tree, skill, subtreeHashes, cache);
+            return;
+        }
+
+        Fragment fragment = fragment(tree, skill, subtreeHashes, cache);
+        // the empty raw value writes the separator, the parts of the fragments are written as they are
+        generator.writeRawValue("");
+        writeFragment(generator, fragment, cache);
+    }
+
+    /**
+     * Returns the cached fragment of the subtree or renders it. The child subtrees, which aren't leaves, are
+     * cached as separate fragments and their places are marked by {@link #CHILD_REFERENCE} in the rendered JSON.
+     */
+    private Fragment fragment(CompactSkillsTree tree, int skill, String[] subtreeHashes, JsonFragmentCache cache)
+            throws IOException {
+        String hash = subtreeHashes[skill];
+        Fragment fragment = cache.get(hash);
+        if (fragment != null) {
+            return fragment;
+        }
+
+        // the fragment is rendered in UTF-8 like the whole tree, so the characters are escaped the same way
+        List<String> childHashes = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator fragmentGenerator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            writeNode(fragmentGenerator, tree, skill, subtreeHashes, cache, childHashes);
+        }
+        String json = out.toString(StandardCharsets.UTF_8);
+        String[] parts = new String[childHashes.size() + 1];
+        int start = 0;
+        for (int i = 0; i < childHashes.size(); i++) {
+            int end = json.indexOf(CHILD_REFERENCE, start);
+            parts[i] = json.substring(start, end);
+            start = end + CHILD_REFERENCE.length();
+        }
+        parts[childHashes.size()] = json.substring(start);
+
+        fragment = new Fragment(parts, childHashes.toArray(new String[0]));
+        cache.put(hash, fragment);
+        return fragment;
+    }
 
-        skill.getChildren().forEach(id -> parseChildren(child, skillsTree.getSkills().get(id), skillsTree));
+    private void writeFragment(JsonGenerator generator, Fragment fragment, JsonFragmentCache cache)
+            throws IOException {
+        String[] parts = fragment.getParts();
+        String[] childHashes = fragment.getChildHashes();
+        for (int i = 0; i < childHashes.length; i++) {
+            generator.writeRaw(parts[i]);
+            writeFragment(generator, cache.get(childHashes[i]), cache);
+        }
+        generator.writeRaw(parts[childHashes.length]);
+    }
+
+    /**
+     * Writes the node of the skill with its subtree, it is used by {@link SkillsTreePatchTransformer} as well.
+     */
+    void writeNode(JsonGenerator generator, CompactSkillsTree tree, int skill) throws IOException {
+        writeNode(generator, tree, skill, null, null);
+    }
+
+    /**
+     * Returns the text of the node's innerHTML field.
+     */
+    static String innerHtml(CompactSkillsTree tree, int skill) {
+        return "<div onclick='obtainSkill(\"" + tree.getId(skill) + "\", 1)'>" + tree.getName(skill) + "</div>";
+    }
+
+    private void writeNode(JsonGenerator generator, CompactSkillsTree tree, int skill, String[] subtreeHashes,
+                           JsonFragmentCache cache) throws IOException {
+        writeNode(generator, tree, skill, subtreeHashes, cache, null);
+    }
+
+    /**
+     * Writes the node of the skill with its subtree. If the list of the child hashes is given, the child subtrees,
+     * which aren't leaves, are cached and only {@link #CHILD_REFERENCE} is written in their places.
+     */
+    private void writeNode(JsonGenerator generator, CompactSkillsTree tree, int skill, String[] subtreeHashes,
+                           JsonFragmentCache cache, List<String> childHashes) throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("children");
+        for (int i = 0; i < tree.getChildCount(skill); i++) {
+            int child = tree.getChild(skill, i);
+            if (childHashes != null && tree.getChildCount(child) != 0) {
+                fragment(tree, child, subtreeHashes, cache);
+                generator.writeRawValue(CHILD_REFERENCE);
+                childHashes.add(subtreeHashes[child]);
+            } else {
+                writeChildren(generator, tree, child, subtreeHashes, cache);
+            }
+        }
+        generator.writeEndArray();
+        generator.writeStringField("innerHTML", innerHtml(tree, skill));
+        generator.writeStringField("HTMLid", tree.getId(skill).toString());
+        generator.writeEndObject();
     }
 }
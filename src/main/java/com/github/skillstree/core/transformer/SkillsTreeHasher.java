@@ -0,0 +1,89 @@
+package com.github.skillstree.core.transformer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.github.skillstree.core.model.CompactSkillsTree;
+import com.github.skillstree.core.model.SkillsTree;
+
+/**
+ * Computes Merkle-style content hashes of the skills subtrees. The hash of a skill covers its id, code,
+ * name, full name, description and the hashes of its children in their order, so the equal hashes
+ * mean the equal subtrees.
+ */
+public class SkillsTreeHasher {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Computes the hashes of all the subtrees of the skills tree.
+     * @param skillsTree {@link SkillsTree}
+     * @return hex encoded hashes of the subtrees by the ids of their root skills
+     */
+    public Map<UUID, String> hash(SkillsTree skillsTree) {
+        CompactSkillsTree tree = CompactSkillsTree.of(skillsTree);
+        String[] hashes = hash(tree);
+        Map<UUID, String> result = new HashMap<>(hashes.length * 2);
+        for (int i = 0; i < hashes.length; i++) {
+            result.put(tree.getId(i), hashes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the hashes of all the subtrees of the skills tree.
+     * @param skillsTree {@link CompactSkillsTree}
+     * @return hex encoded hashes of the subtrees by the numbers of their root skills
+     */
+    public String[] hash(CompactSkillsTree skillsTree) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not supported", e);
+        }
+
+        // the children follow their parents in preorder, so the reverse order hashes them first
+        byte[][] hashes = new byte[skillsTree.size()][];
+        String[] result = new String[skillsTree.size()];
+        for (int skill = skillsTree.size() - 1; skill >= 0; skill--) {
+            update(digest, skillsTree.getId(skill).toString());
+            update(digest, skillsTree.getCode(skill));
+            update(digest, skillsTree.getName(skill));
+            update(digest, skillsTree.getFullName(skill));
+            update(digest, skillsTree.getDescription(skill));
+            int childCount = skillsTree.getChildCount(skill);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(childCount).array());
+            for (int i = 0; i < childCount; i++) {
+                digest.update(hashes[skillsTree.getChild(skill, i)]);
+            }
+
+            hashes[skill] = digest.digest();
+            result[skill] = toHex(hashes[skill]);
+        }
+        return result;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // the length prefix keeps the adjacent fields apart, -1 stands for null
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(value == null ? -1 : bytes.length).array());
+        digest.update(bytes);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.skillstree.core.transformer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.skillstree.core.model.CompactSkillsTree;
+import com.github.skillstree.core.model.SkillsTreeIndex;
+
+/**
+ * Transforms the changes between two versions of a skills tree to RFC 6902 JSON Patch of the JSON produced by
+ * {@link SkillsToJsonTreeTransformer}. The skills are matched by their ids, the subtrees with equal hashes
+ * (see {@link SkillsTreeHasher}) are skipped.
+ * <ul>
+ *     <li>the removed children are removed in descending order and the added ones are added in ascending
+ *     order, so the indices of every operation are valid after the previous ones;</li>
+ *     <li>the renamed skills get their innerHTML replaced;</li>
+ *     <li>the whole children array is replaced if the order of the kept children has changed.</li>
+ * </ul>
+ */
+public class SkillsTreePatchTransformer {
+
+    private static final String ROOT_PATH = "/nodeStructure";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SkillsToJsonTreeTransformer skillsToJsonTransformer;
+
+    public SkillsTreePatchTransformer() {
+        this(new SkillsToJsonTreeTransformer());
+    }
+
+    public SkillsTreePatchTransformer(SkillsToJsonTreeTransformer skillsToJsonTransformer) {
+        this.skillsToJsonTransformer = skillsToJsonTransformer;
+    }
+
+    /**
+     * Creates the JSON Patch, which transforms the JSON of the old skills tree to the JSON of the new one.
+     * @param oldTree   index of the old skills tree
+     * @param oldHashes hashes of the old tree's subtrees by the skills' numbers
+     * @param newTree   index of the new skills tree
+     * @param newHashes hashes of the new tree's subtrees by the skills' numbers
+     * @return JSON Patch document, an empty array if the trees are equal
+     * @throws IOException if the problem with transformation occurred
+     */
+    public String transform(SkillsTreeIndex oldTree, String[] oldHashes, SkillsTreeIndex newTree,
+                            String[] newHashes) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            generator.writeStartArray();
+            new Diff(generator, oldTree, oldHashes, newTree, newHashes)
+                    .diff(CompactSkillsTree.ROOT, CompactSkillsTree.ROOT, ROOT_PATH);
+            generator.writeEndArray();
+        }
+        return writer.toString();
+    }
+
+    private class Diff {
+
+        private final JsonGenerator generator;
+
+        private final SkillsTreeIndex oldIndex;
+
+        private final CompactSkillsTree oldTree;
+
+        private final String[] oldHashes;
+
+        private final CompactSkillsTree newTree;
+
+        private final String[] newHashes;
+
+        Diff(JsonGenerator generator, SkillsTreeIndex oldIndex, String[] oldHashes, SkillsTreeIndex newIndex,
+             String[] newHashes) {
+            this.generator = generator;
+            this.oldIndex = oldIndex;
+            this.oldTree = oldIndex.getTree();
+            this.oldHashes = oldHashes;
+            this.newTree = newIndex.getTree();
+            this.newHashes = newHashes;
+        }
+
+        void diff(int oldSkill, int newSkill, String path) throws IOException {
+            if (oldHashes[oldSkill].equals(newHashes[newSkill])) {
+                return;
+            }
+
+            if (oldSkill == CompactSkillsTree.ROOT) {
+                if (!Objects.equals(newTree.getName(newSkill), oldTree.getName(oldSkill))) {
+                    writeReplace(path + "/text/name");
+                    generator.writeString(newTree.getName(newSkill));
+                    generator.writeEndObject();
+                }
+            } else {
+                String innerHtml = SkillsToJsonTreeTransformer.innerHtml(newTree, newSkill);
+                if (!innerHtml.equals(SkillsToJsonTreeTransformer.innerHtml(oldTree, oldSkill))) {
+                    writeReplace(path + "/innerHTML");
+                    generator.writeString(innerHtml);
+                    generator.writeEndObject();
+                }
+            }
+
+            int oldCount = oldTree.getChildCount(oldSkill);
+            int newCount = newTree.getChildCount(newSkill);
+
+            // the position of every old child among the old skill's children, which is kept in the new tree
+            int[] kept = new int[newCount];
+            boolean[] oldKept = new boolean[oldCount];
+            int lastPosition = -1;
+            boolean reordered = false;
+            for (int j = 0; j < newCount; j++) {
+                int newChild = newTree.getChild(newSkill, j);
+                int oldChild = oldTree.indexOf(newTree.getIdMostSigBits(newChild),
+                        newTree.getIdLeastSigBits(newChild));
+                kept[j] = -1;
+                if (oldChild >= 0 && oldIndex.getParent(oldChild) == oldSkill) {
+                    int position = positionOf(oldSkill, oldChild);
+                    kept[j] = position;
+                    oldKept[position] = true;
+                    reordered |= position < lastPosition;
+                    lastPosition = position;
+                }
+            }
+
+            String childrenPath = path + "/children";
+            if (reordered) {
+                writeReplace(childrenPath);
+                generator.writeStartArray();
+                for (int j = 0; j < newCount; j++) {
+                    skillsToJsonTransformer.writeNode(generator, newTree, newTree.getChild(newSkill, j));
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+                return;
+            }
+
+            for (int i = oldCount - 1; i >= 0; i--) {
+                if (!oldKept[i]) {
+                    writeOperation("remove", childrenPath + "/" + i);
+                    generator.writeEndObject();
+                }
+            }
+            for (int j = 0; j < newCount; j++) {
+                if (kept[j] < 0) {
+                    writeOperation("add", childrenPath + "/" + j);
+                    generator.writeFieldName("value");
+                    skillsToJsonTransformer.writeNode(generator, newTree, newTree.getChild(newSkill, j));
+                    generator.writeEndObject();
+                }
+            }
+            for (int j = 0; j < newCount; j++) {
+                if (kept[j] >= 0) {
+                    diff(oldTree.getChild(oldSkill, kept[j]), newTree.getChild(newSkill, j),
+                            childrenPath + "/" + j);
+                }
+            }
+        }
+
+        private int positionOf(int parent, int child) {
+            for (int i = 0; i < oldTree.getChildCount(parent); i++) {
+                if (oldTree.getChild(parent, i) == child) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Skill " + child + " is not a child of " + parent);
+        }
+
+        private void writeReplace(String path) throws IOException {
+            writeOperation("replace", path);
+            generator.writeFieldName("value");
+        }
+
+        private void writeOperation(String op, String path) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("op", op);
+            generator.writeStringField("path", path);
+        }
+    }
+}
@@ -2,27 +2,46 @@ package com.github.skillstree.core.transformer;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.util.*;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.github.skillstree.core.model.CompactSkillsTree;
 import com.github.skillstree.core.model.Skill;
 import com.github.skillstree.core.model.SkillsTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Transforms YAML declaration of skills tree to skills objects.
  */
 public class YamlToSkillsTransformer {
 
-    private final ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+    private static final Logger logger = LoggerFactory.getLogger(YamlToSkillsTransformer.class);
+
+    /**
+     * Reader of skills files, it is immutable and thread-safe, so it is shared by all the transformers.
+     */
+    private static final ObjectReader SKILL_READER = new ObjectMapper(new YAMLFactory()).readerFor(Skill.class);
 
     private final Map<String, UUID> persistedSkills;
 
+    private int parsedFileCount;
+
     public YamlToSkillsTransformer(Map<String, UUID> persistedSkills) {
         this.persistedSkills = persistedSkills;
     }
 
+    /**
+     * Returns the number of the skills files parsed by this transformer.
+     * @return number of the parsed files
+     */
+    public int getParsedFileCount() {
+        return parsedFileCount;
+    }
+
     /**
      * Parses the directory with skills files and creates the corresponding {@link SkillsTree}.
      * @param baseDir directory with skills files
@@ -30,60 +49,356 @@ public class YamlToSkillsTransformer {
      * @throws IOException if problem with files occurred
      */
     public SkillsTree transform(File baseDir) throws IOException {
+        if (!baseDir.isDirectory()) {
+            throw new IllegalArgumentException("Skills set directory should be a directory");
+        }
+        return transform(SkillsFile.of(baseDir));
+    }
+
+    /**
+     * Parses the directory with skills files and creates the corresponding {@link SkillsTree}.
+     * @param baseDir directory with skills files, either a local one or a tree of a git commit
+     * @return {@link SkillsTree}
+     * @throws IOException if problem with files occurred
+     */
+    public SkillsTree transform(SkillsFile baseDir) throws IOException {
         if (!baseDir.isDirectory()) {
             throw new IllegalArgumentException("Skills set directory should be a directory");
         }
         final Map<UUID, Skill> skills = new HashMap<>();
-        Skill mainSkill = parseSkills("", baseDir, skills);
+        Skill mainSkill = parseSkills(baseDir, skills);
 
-        skills.forEach((s, skill) -> System.out.println(skill));
+        if (logger.isDebugEnabled()) {
+            skills.forEach((s, skill) -> logger.debug("Skill is parsed: {}", skill));
+        }
 
         return new SkillsTree()
                 .setRootSkill(mainSkill)
                 .setSkills(skills);
     }
 
-    public SkillsTree transform(File baseDir, List<String> changedFiles) {
-        return null; //TODO implement
+    /**
+     * Patches the previously built {@link SkillsTree} in place with the changes of the specified files.
+     * Only the directories affected by the changes are re-read, the rest of the tree is reused as is.
+     * @param skillsTree   {@link SkillsTree} previously built from the same directory
+     * @param baseDir      directory with skills files
+     * @param changedFiles added, modified, deleted or renamed files, the paths are relative to the parent of
+     *                     the base directory (as they are reported by git)
+     * @return patched {@link SkillsTree}
+     * @throws IOException if problem with files occurred
+     */
+    public SkillsTree transform(SkillsTree skillsTree, File baseDir, List<String> changedFiles) throws IOException {
+        if (!baseDir.isDirectory()) {
+            throw new IllegalArgumentException("Skills set directory should be a directory");
+        }
+        return transform(skillsTree, SkillsFile.root(baseDir.getParentFile()), baseDir.getName(), changedFiles);
     }
 
-    private Skill parseSkills(String parentPath, File baseDir, Map<UUID, Skill> skills) throws IOException {
-        Skill rootSkill = findRootSkill(parentPath, baseDir);
-        skills.put(rootSkill.getId(), rootSkill);
+    /**
+     * Patches the previously built {@link SkillsTree} in place with the changes of the specified files.
+     * Only the directories affected by the changes are re-read, the rest of the tree is reused as is.
+     * @param skillsTree   {@link SkillsTree} previously built from the same directory
+     * @param reposRoot    root directory of the skills repository, either a local one or a tree of a git commit
+     * @param basePath     path of the directory with skills files relative to the repository's root
+     * @param changedFiles added, modified, deleted or renamed files, the paths are relative to the repository's
+     *                     root (as they are reported by git)
+     * @return patched {@link SkillsTree}
+     * @throws IOException if problem with files occurred
+     */
+    public SkillsTree transform(SkillsTree skillsTree, SkillsFile reposRoot, String basePath,
+                                List<String> changedFiles) throws IOException {
+        final Set<String> changed = new HashSet<>();
+        for (String path : changedFiles) {
+            if (path.startsWith(basePath + "/")) {
+                changed.add(path);
+            }
+        }
+        if (changed.isEmpty()) {
+            return skillsTree;
+        }
+
+        final Map<UUID, Skill> skills = skillsTree.getSkills();
+        final Map<String, Skill> dirRoots = new HashMap<>();
+        final Map<String, Skill> fileSkills = new HashMap<>();
+        indexDirectories(skillsTree.getRootSkill(), skills, dirRoots, fileSkills);
+
+        final Set<String> affectedDirs = new HashSet<>();
+        for (String path : changed) {
+            String dir = parentPath(path);
+            markAffected(dir, basePath, reposRoot, dirRoots, affectedDirs);
+            if (isRootSkillFile(dir, fileName(path)) && !dir.equals(basePath)) {
+                markAffected(parentPath(dir), basePath, reposRoot, dirRoots, affectedDirs);
+            }
+        }
+
+        // the deepest directories go first, so the parents can link already rebuilt subdirectories
+        List<String> dirs = new ArrayList<>(affectedDirs);
+        dirs.sort(Comparator.comparingInt(YamlToSkillsTransformer::depth).reversed());
 
-        File[] files = baseDir.listFiles((dir, name) -> !name.startsWith(baseDir.getName()));
-        if (files != null && files.length != 0) {
-            for (File f : files) {
-                Skill skill;
-                if (f.isDirectory()) {
-                    skill = parseSkills(parentPath + (parentPath.isEmpty() ? "" : "/") +
-                            baseDir.getName(), f, skills);
-                } else {
-                    skill = mapper.readValue(Files.readString(f.toPath()), Skill.class);
-                    skill.setCode(parentPath + (parentPath.isEmpty() ? "" : "/") +
-                            baseDir.getName() + "/" + f.getName());
-                    skill.setId(persistedSkills.get(skill.getCode()) == null ? UUID.randomUUID() :
-                            persistedSkills.get(skill.getCode()));
+        final Map<String, Skill> rebuiltRoots = new HashMap<>();
+        for (String dir : dirs) {
+            SkillsFile dirFile = reposRoot.resolve(dir);
+            Skill oldRoot = dirRoots.get(dir);
+            if (dirFile == null || !dirFile.isDirectory()) {
+                if (oldRoot != null) {
+                    removeSubtree(oldRoot.getId(), skills);
+                }
+                continue;
+            }
+            List<UUID> oldChildren = oldRoot == null ? List.of() : oldRoot.getChildren();
+
+            Skill newRoot = rebuildDirectory(dir, dirFile, oldRoot, changed, skills, dirRoots, fileSkills,
+                    rebuiltRoots);
+            rebuiltRoots.put(dir, newRoot);
+
+            Set<UUID> newChildren = new HashSet<>(newRoot.getChildren());
+            for (UUID id : oldChildren) {
+                if (!newChildren.contains(id)) {
+                    removeSubtree(id, skills);
+                }
+            }
+            if (oldRoot != null && !oldRoot.getId().equals(newRoot.getId())) {
+                skills.remove(oldRoot.getId());
+            }
+            if (dir.equals(basePath)) {
+                skillsTree.setRootSkill(newRoot);
+            }
+        }
+
+        return skillsTree;
+    }
+
+    /**
+     * Patches the compact form of the previously built tree with the changes of the specified files. Only
+     * the directories on the paths of the changed files are expanded to {@link Skill} objects, the rest of
+     * the tree is copied from the compact form by whole subtrees, so the patch doesn't cost the objects of
+     * the whole tree.
+     * @param tree         {@link CompactSkillsTree} previously built from the same directory
+     * @param reposRoot    root directory of the skills repository, either a local one or a tree of a git commit
+     * @param basePath     path of the directory with skills files relative to the repository's root
+     * @param changedFiles added, modified, deleted or renamed files, the paths are relative to the repository's
+     *                     root (as they are reported by git)
+     * @return patched {@link CompactSkillsTree}, the same tree if none of the files belongs to the directory
+     * @throws IOException if problem with files occurred
+     */
+    public CompactSkillsTree transform(CompactSkillsTree tree, SkillsFile reposRoot, String basePath,
+                                       List<String> changedFiles) throws IOException {
+        final Set<String> changedDirs = new HashSet<>();
+        for (String path : changedFiles) {
+            if (path.startsWith(basePath + "/")) {
+                changedDirs.add(parentPath(path));
+            }
+        }
+        if (changedDirs.isEmpty()) {
+            return tree;
+        }
+
+        final Map<UUID, Skill> skills = new HashMap<>();
+        Skill root = expandDirectory(tree, CompactSkillsTree.ROOT, changedDirs, skills);
+        SkillsTree patched = transform(new SkillsTree().setRootSkill(root).setSkills(skills), reposRoot, basePath,
+                changedFiles);
+        return CompactSkillsTree.of(patched, tree);
+    }
+
+    /**
+     * Expands the directory's root skill and its children. The subdirectories on the paths of the changed
+     * directories are expanded recursively, the rest of them only by their root skills.
+     */
+    private static Skill expandDirectory(CompactSkillsTree tree, int dirRoot, Set<String> changedDirs,
+                                         Map<UUID, Skill> skills) {
+        Skill root = expandSkill(tree, dirRoot, skills);
+        String dir = parentPath(tree.getCode(dirRoot));
+        for (int i = 0; i < tree.getChildCount(dirRoot); i++) {
+            int child = tree.getChild(dirRoot, i);
+            String childDir = parentPath(tree.getCode(child));
+            if (!dir.equals(childDir) && isOnPath(childDir, changedDirs)) {
+                expandDirectory(tree, child, changedDirs, skills);
+            } else {
+                expandSkill(tree, child, skills);
+            }
+        }
+        return root;
+    }
+
+    private static Skill expandSkill(CompactSkillsTree tree, int skill, Map<UUID, Skill> skills) {
+        List<UUID> children = new ArrayList<>(tree.getChildCount(skill));
+        for (int i = 0; i < tree.getChildCount(skill); i++) {
+            children.add(tree.getId(tree.getChild(skill, i)));
+        }
+        Skill expanded = new Skill()
+                .setId(tree.getId(skill))
+                .setCode(tree.getCode(skill))
+                .setName(tree.getName(skill))
+                .setFullName(tree.getFullName(skill))
+                .setDescription(tree.getDescription(skill))
+                .setChildren(children);
+        skills.put(expanded.getId(), expanded);
+        return expanded;
+    }
+
+    private static boolean isOnPath(String dir, Set<String> changedDirs) {
+        for (String changedDir : changedDirs) {
+            if (changedDir.equals(dir) || changedDir.startsWith(dir + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Skill rebuildDirectory(String dir, SkillsFile dirFile, Skill oldRoot, Set<String> changed,
+                                   Map<UUID, Skill> skills, Map<String, Skill> dirRoots,
+                                   Map<String, Skill> fileSkills, Map<String, Skill> rebuiltRoots)
+            throws IOException {
+
+        List<SkillsFile> files = dirFile.listFiles();
+        SkillsFile rootFile = findRootSkillFile(dirFile, files);
+
+        String rootCode = rootFile.getPath();
+        Skill root;
+        if (oldRoot != null && oldRoot.getCode().equals(rootCode) && !changed.contains(rootCode)) {
+            root = oldRoot;
+        } else {
+            root = readSkill(rootFile, rootCode,
+                    oldRoot != null && oldRoot.getCode().equals(rootCode) ? oldRoot.getId() : null);
+        }
+
+        List<UUID> children = new ArrayList<>();
+        for (SkillsFile f : files) {
+            if (f.getName().startsWith(dirFile.getName())) {
+                continue;
+            }
+            String code = f.getPath();
+            Skill skill;
+            if (f.isDirectory()) {
+                skill = rebuiltRoots.containsKey(code) ? rebuiltRoots.get(code) : dirRoots.get(code);
+                if (skill == null) {
+                    skill = parseSkills(f, skills);
+                }
+            } else {
+                skill = fileSkills.get(code);
+                if (skill == null || changed.contains(code)) {
+                    skill = readSkill(f, code, skill == null ? null : skill.getId());
                     skills.put(skill.getId(), skill);
                 }
-                rootSkill.addChild(skill.getId());
             }
+            children.add(skill.getId());
         }
-        return rootSkill;
+
+        root.setChildren(children);
+        skills.put(root.getId(), root);
+        return root;
     }
 
-    private Skill findRootSkill(String parentPath, File baseDir) throws IOException {
-        File[] files = baseDir.listFiles((dir, name) -> name.startsWith(baseDir.getName().toLowerCase()) &&
-                (name.endsWith(".yaml") || name.endsWith(".yml")));
+    /**
+     * Marks the directory as affected by the changes. If the directory is new or deleted, the listing of
+     * its parent has changed as well, so the parent is marked too.
+     */
+    private static void markAffected(String dir, String basePath, SkillsFile reposRoot,
+                                     Map<String, Skill> dirRoots, Set<String> affectedDirs) throws IOException {
+        String current = dir;
+        while (current != null && affectedDirs.add(current) && !current.equals(basePath)) {
+            if (dirRoots.containsKey(current) && isDirectory(reposRoot.resolve(current))) {
+                break;
+            }
+            current = parentPath(current);
+        }
+    }
 
-        Objects.requireNonNull(files, "There is no yaml file found for the root skill " + baseDir.getName());
+    private static void indexDirectories(Skill dirRoot, Map<UUID, Skill> skills, Map<String, Skill> dirRoots,
+                                         Map<String, Skill> fileSkills) {
+        String dir = parentPath(dirRoot.getCode());
+        dirRoots.put(dir, dirRoot);
+        for (UUID id : dirRoot.getChildren()) {
+            Skill child = skills.get(id);
+            if (child == null) {
+                continue;
+            }
+            if (dir.equals(parentPath(child.getCode()))) {
+                fileSkills.put(child.getCode(), child);
+            } else {
+                indexDirectories(child, skills, dirRoots, fileSkills);
+            }
+        }
+    }
+
+    private static void removeSubtree(UUID id, Map<UUID, Skill> skills) {
+        Skill skill = skills.remove(id);
+        if (skill != null) {
+            skill.getChildren().forEach(childId -> removeSubtree(childId, skills));
+        }
+    }
+
+    private static boolean isDirectory(SkillsFile file) {
+        return file != null && file.isDirectory();
+    }
+
+    private Skill readSkill(SkillsFile file, String code, UUID knownId) throws IOException {
+        Skill skill;
+        try (InputStream in = file.open()) {
+            skill = SKILL_READER.readValue(in);
+        }
+        parsedFileCount++;
+        skill.setCode(code);
+        skill.setId(knownId == null ? idOf(code) : knownId);
+        return skill;
+    }
+
+    private UUID idOf(String code) {
+        UUID id = persistedSkills.get(code);
+        return id == null ? UUID.randomUUID() : id;
+    }
+
+    private static boolean isRootSkillFile(String dir, String name) {
+        return name.startsWith(fileName(dir).toLowerCase()) && (name.endsWith(".yaml") || name.endsWith(".yml"));
+    }
 
-        Skill rootSkill = mapper.readValue(Files.readString(files[0].toPath()), Skill.class);
-        rootSkill.setId(persistedSkills.get(rootSkill.getCode()) == null ? UUID.randomUUID() :
-                persistedSkills.get(rootSkill.getCode()));
-        rootSkill.setCode(parentPath + (parentPath.isEmpty() ? "" : "/") +
-                baseDir.getName() + "/" + files[0].getName());
+    private static String parentPath(String path) {
+        int i = path.lastIndexOf('/');
+        return i < 0 ? null : path.substring(0, i);
+    }
+
+    private static String fileName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
 
+    private Skill parseSkills(SkillsFile baseDir, Map<UUID, Skill> skills) throws IOException {
+        // each directory is listed once, the root skill file is picked from the same listing
+        List<SkillsFile> files = baseDir.listFiles();
+        SkillsFile rootFile = findRootSkillFile(baseDir, files);
+        Skill rootSkill = readSkill(rootFile, rootFile.getPath(), null);
+        skills.put(rootSkill.getId(), rootSkill);
+
+        for (SkillsFile f : files) {
+            if (f.getName().startsWith(baseDir.getName())) {
+                continue;
+            }
+            Skill skill;
+            if (f.isDirectory()) {
+                skill = parseSkills(f, skills);
+            } else {
+                skill = readSkill(f, f.getPath(), null);
+                skills.put(skill.getId(), skill);
+            }
+            rootSkill.addChild(skill.getId());
+        }
         return rootSkill;
     }
+
+    private static SkillsFile findRootSkillFile(SkillsFile dir, List<SkillsFile> files) {
+        return files.stream()
+                .filter(f -> !f.isDirectory() && isRootSkillFile(dir.getName(), f.getName()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException(
+                        "There is no yaml file found for the root skill " + dir.getName()));
+    }
 }
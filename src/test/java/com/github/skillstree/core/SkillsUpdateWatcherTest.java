@@ -0,0 +1,175 @@
+package com.github.skillstree.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import com.github.skillstree.core.model.SkillsIdMapping;
+import com.github.skillstree.core.service.GitExtractor;
+import com.github.skillstree.core.service.PersistenceService;
+import com.github.skillstree.core.transformer.SkillsToJsonTreeTransformer;
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the watcher against a local git repository, the persistence and the website are replaced by the in-memory
+ * implementations.
+ */
+public class SkillsUpdateWatcherTest {
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(50);
+
+    private static final Duration DEBOUNCE = Duration.ofMillis(1000);
+
+    private static final long TIMEOUT_MILLIS = 20_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Git origin;
+
+    private InMemoryPersistence persistence;
+
+    private SkillsUpdateWatcher watcher;
+
+    @Before
+    public void setUp() throws Exception {
+        File originDir = folder.newFolder("origin");
+        origin = Git.init().setDirectory(originDir).call();
+        writeFile("java/java.yaml", "name: Java");
+        writeFile("java/core/core.yaml", "name: Core");
+        writeFile("sql/sql.yaml", "name: SQL");
+        commit("Initial skills");
+
+        persistence = new InMemoryPersistence();
+        SkillsUpdater updater = new SkillsUpdater(skillsTreeJson -> { }, persistence,
+                new SkillsToJsonTreeTransformer(),
+                new GitExtractor(folder.newFolder("work"), "file://" + originDir.getAbsolutePath(), "master"));
+        updater.pullPreviouslyPersistedSkills();
+        watcher = new SkillsUpdateWatcher(updater)
+                .setPollInterval(POLL_INTERVAL)
+                .setDebounce(DEBOUNCE)
+                .start();
+
+        awaitUpdateOfHead();
+        assertEquals(1, watcher.getUpdateCount());
+    }
+
+    @After
+    public void tearDown() {
+        watcher.close();
+        origin.close();
+    }
+
+    @Test
+    public void burstOfPushesIsUpdatedOnce() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            writeFile("java/core/skill" + i + ".yaml", "name: Skill " + i);
+            commit("Skill " + i);
+        }
+
+        awaitUpdateOfHead();
+        assertEquals(2, watcher.getUpdateCount());
+        assertEquals(0, watcher.getFailureCount());
+        assertTrue(persistence.mappings.containsKey("java/core/skill4.yaml"));
+    }
+
+    @Test
+    public void unchangedBranchIsOnlyChecked() throws Exception {
+        long checkCount = watcher.getCheckCount();
+
+        awaitUntil(() -> watcher.getCheckCount() >= checkCount + 5);
+        assertEquals(1, watcher.getUpdateCount());
+        assertEquals(0, watcher.getFailureCount());
+    }
+
+    private void writeFile(String path, String content) throws IOException {
+        File file = new File(origin.getRepository().getWorkTree(), path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    }
+
+    private void commit(String message) throws Exception {
+        origin.add().addFilepattern(".").call();
+        origin.commit().setMessage(message).setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com").call();
+    }
+
+    private String head() {
+        try {
+            return origin.getRepository().resolve("HEAD").getName();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits until the head commit is saved and the watcher checks the branch again, the update is counted then.
+     */
+    private void awaitUpdateOfHead() throws InterruptedException {
+        awaitUntil(() -> head().equals(persistence.lastCommit));
+        long checkCount = watcher.getCheckCount();
+        awaitUntil(() -> watcher.getCheckCount() > checkCount);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the watcher", System.currentTimeMillis() < deadline);
+            Thread.sleep(POLL_INTERVAL.toMillis());
+        }
+    }
+
+    /**
+     * Persistence, which keeps the mappings and the last commit in memory instead of the database.
+     */
+    private static class InMemoryPersistence extends PersistenceService {
+
+        private final Map<String, UUID> mappings = new ConcurrentHashMap<>();
+
+        private volatile String lastCommit;
+
+        InMemoryPersistence() {
+            super(new DriverManagerDataSource());
+        }
+
+        @Override
+        public void initTables() {
+        }
+
+        @Override
+        public Map<String, UUID> getAllMappings() {
+            return Map.copyOf(mappings);
+        }
+
+        @Override
+        public void saveAll(Collection<SkillsIdMapping> skillsIdMappings) {
+            skillsIdMappings.forEach(mapping -> mappings.put(mapping.getCode(), mapping.getId()));
+        }
+
+        @Override
+        public void save(String lastCommit) {
+            this.lastCommit = lastCommit;
+        }
+
+        @Override
+        public String getLastCommit() {
+            return lastCommit;
+        }
+    }
+}